@@ -0,0 +1,88 @@
+package org.mfa.config;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.representations.AccessTokenResponse;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admin access token for the Keycloak admin client, attached to every admin request by this filter.
+ * <p>
+ * Replaces the admin client's own {@code TokenManager}, whose {@code getAccessToken} and
+ * {@code grantToken} hold the object monitor across the token HTTP call: on Java 21 every virtual
+ * thread that renews the token, or waits for it, would pin its carrier. Here the token is read from
+ * a volatile field and renewed under a {@link ReentrantLock} {@code keycloak.admin.token-min-validity-seconds}
+ * before it expires. A 401 from Keycloak drops the token so the next call fetches a new one.
+ */
+@Priority(Priorities.USER + 1) // runs after, and overrides, the admin client's static BearerAuthFilter
+public class AdminAccessToken implements ClientRequestFilter, ClientResponseFilter {
+
+    private record Token(String value, long renewAt) {}
+
+    private final WebTarget tokenEndpoint;
+    private final Form grant;
+    private final long minValidityMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Token current;
+
+    /** @param tokenEndpoint must not be served by a client that has this filter registered */
+    public AdminAccessToken(WebTarget tokenEndpoint, String clientId, String username, String password,
+                            long minValiditySeconds) {
+        this.tokenEndpoint = tokenEndpoint;
+        this.grant = new Form()
+                .param(OAuth2Constants.GRANT_TYPE, OAuth2Constants.PASSWORD)
+                .param(OAuth2Constants.CLIENT_ID, clientId)
+                .param(OAuth2Constants.USERNAME, username)
+                .param(OAuth2Constants.PASSWORD, password);
+        this.minValidityMillis = minValiditySeconds * 1000;
+    }
+
+    /** The cached token if it is still valid, else null; never blocks. */
+    public String cached() {
+        Token t = current;
+        return t != null && System.currentTimeMillis() < t.renewAt() ? t.value() : null;
+    }
+
+    /** The cached token; blocks (without pinning) only while a renewal is in flight. */
+    public String get() {
+        String cached = cached();
+        if (cached != null) return cached;
+        lock.lock();
+        try {
+            Token t = current;
+            if (t != null && System.currentTimeMillis() < t.renewAt()) return t.value();
+            AccessTokenResponse r = tokenEndpoint.request(MediaType.APPLICATION_JSON_TYPE)
+                    .post(Entity.form(grant), AccessTokenResponse.class);
+            long lifetime = Math.max(0, r.getExpiresIn() * 1000 - minValidityMillis);
+            current = new Token(r.getToken(), System.currentTimeMillis() + lifetime);
+            return r.getToken();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext request) {
+        request.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, "Bearer " + get());
+    }
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) {
+        Token t = current;
+        if (response.getStatus() == 401 && t != null
+                && ("Bearer " + t.value()).equals(request.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+            current = null;
+        }
+    }
+}
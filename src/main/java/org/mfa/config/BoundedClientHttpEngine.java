@@ -0,0 +1,66 @@
+package org.mfa.config;
+
+import jakarta.ws.rs.client.Invocation;
+import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps in-flight admin calls at {@code keycloak.admin.connection-pool-size} for engines that have
+ * no pool limit of their own; callers wait on a {@link Semaphore}, which parks a virtual thread
+ * without pinning its carrier.
+ * <p>
+ * The response body is buffered before the permit is returned, so the connection is back in the
+ * keep-alive cache when the next caller starts; admin responses are JSON pages, so this costs no
+ * more memory than reading them.
+ */
+final class BoundedClientHttpEngine implements ClientHttpEngine {
+
+    private final ClientHttpEngine delegate;
+    private final Semaphore permits;
+
+    BoundedClientHttpEngine(ClientHttpEngine delegate, int maxInFlight) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public Response invoke(Invocation request) {
+        permits.acquireUninterruptibly();
+        try {
+            Response response = delegate.invoke(request);
+            response.bufferEntity();
+            return response;
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public SSLContext getSslContext() {
+        return delegate.getSslContext();
+    }
+
+    @Override
+    public HostnameVerifier getHostnameVerifier() {
+        return delegate.getHostnameVerifier();
+    }
+
+    @Override
+    public boolean isFollowRedirects() {
+        return delegate.isFollowRedirects();
+    }
+
+    @Override
+    public void setFollowRedirects(boolean followRedirects) {
+        delegate.setFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,129 @@
+package org.mfa.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools for request handling and Keycloak fan-out.
+ * <p>
+ * With {@code mfa.threads.virtual=true} Tomcat hands every request to a virtual thread, so the
+ * blocking admin-client (RESTEasy) and Twilio calls made from controllers and services park
+ * instead of holding a platform worker. Virtual threads need a Java 21 runtime; on older JVMs the
+ * flag is ignored with a warning. Build with {@code -Pjdk21} to target 21; after moving to Spring
+ * Boot 3.2+ this can be replaced by {@code spring.threads.virtual.enabled}.
+ * <p>
+ * Pinning (Java 21 parks a virtual thread's carrier while it blocks inside {@code synchronized}):
+ * <ul>
+ *   <li>The admin client's token manager renews under a monitor; {@link AdminAccessToken} replaces it.</li>
+ *   <li>Apache HttpClient 4 takes pooled connections and connects inside monitors. The admin client
+ *       switches to the JDK's HttpURLConnection in virtual mode ({@link KeycloakClientConfig});
+ *       Twilio keeps HttpClient 4, so SMS calls stay on the platform {@link #smsExecutor}.</li>
+ * </ul>
+ * Check with {@code -Djdk.tracePinnedThreads=short}; {@code VirtualThreadsBenchmark} compares both
+ * modes under injected Keycloak latency.
+ */
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${keycloak.fanout.threads:10}")
+    private int keycloakFanoutThreads;
+
+    @Value("${export.max-concurrent:4}")
+    private int maxConcurrentExports;
+
+    @Value("${bulk.threads:8}")
+    private int bulkThreads;
+
+    @Value("${sms.threads:16}")
+    private int smsThreads;
+
+    @Value("${mfa.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    /**
+     * Pool used to fan out independent Keycloak admin calls (e.g. representation + credentials).
+     * Kept below {@code keycloak.admin.connection-pool-size} so parallel calls don't queue on it.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService keycloakExecutor() {
+        if (virtualThreads) {
+            Optional<ExecutorService> v = newVirtualThreadExecutor();
+            if (v.isPresent()) return v.get();
+        }
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(keycloakFanoutThreads, r -> {
+            Thread t = new Thread(r, "kc-fanout-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Page producers for streaming user exports; bounds how many exports read from Keycloak at once. */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService exportExecutor() {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxConcurrentExports, r -> {
+            Thread t = new Thread(r, "user-export-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Workers for bulk user operations (import chunks); per-call concurrency is limited by the caller. */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService bulkExecutor() {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(bulkThreads, r -> {
+            Thread t = new Thread(r, "user-bulk-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs blocking SMS provider calls so {@code SmsOtpProvider} can hand back futures. Platform
+     * threads in both modes, since Twilio's HttpClient 4 would pin virtual ones; virtual request
+     * threads waiting on the futures park normally.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService smsExecutor() {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(smsThreads, r -> {
+            Thread t = new Thread(r, "sms-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "mfa.threads.virtual", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        return handler -> newVirtualThreadExecutor().ifPresent(handler::setExecutor);
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} looked up reflectively so the code still
+     * compiles for Java 17.
+     */
+    static Optional<ExecutorService> newVirtualThreadExecutor() {
+        try {
+            var m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService) m.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            log.warn("mfa.threads.virtual=true but this JVM ({}) has no virtual threads; using platform threads",
+                    Runtime.version());
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.mfa.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.function.ToIntFunction;
+
+/**
+ * Shared, pooled HTTP client for calls to Keycloak's token endpoint (password/TOTP grants and
+ * the browser-flow code exchange). Connections are kept alive and reused across requests.
+ * Latency is recorded by Boot as {@code http.client.requests} because the template is built
+ * through {@link RestTemplateBuilder}; pool usage is exposed as {@code http.client.pool.*}.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${http.client.max-total:200}")
+    private int maxTotal;
+    @Value("${http.client.max-per-route:50}")
+    private int maxPerRoute;
+    @Value("${http.client.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+    @Value("${http.client.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+    @Value("${http.client.pool-timeout-ms:1000}")
+    private long poolTimeoutMs;
+    @Value("${http.client.keep-alive-seconds:30}")
+    private long keepAliveSeconds;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager keycloakConnectionManager(MeterRegistry meters) {
+        PoolingHttpClientConnectionManager cm = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        poolGauge(meters, cm, "leased", PoolStats::getLeased);
+        poolGauge(meters, cm, "available", PoolStats::getAvailable);
+        poolGauge(meters, cm, "pending", PoolStats::getPending);
+        poolGauge(meters, cm, "max", PoolStats::getMax);
+        return cm;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient keycloakHttpClient(PoolingHttpClientConnectionManager keycloakConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(keycloakConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(keepAliveSeconds))
+                .evictIdleConnections(TimeValue.ofSeconds(keepAliveSeconds))
+                .evictExpiredConnections()
+                .build();
+    }
+
+    /**
+     * Non-blocking counterpart used by the reactive login pipeline. Same limits and timeouts as the
+     * pooled RestTemplate; HTTP/2 is negotiated via ALPN when Keycloak is served over TLS.
+     */
+    @Bean
+    public WebClient keycloakWebClient(WebClient.Builder builder, @Value("${keycloak.server-url}") String serverUrl) {
+        String base = serverUrl.replaceAll("/+$", "");
+        ConnectionProvider pool = ConnectionProvider.builder("keycloak")
+                .maxConnections(maxTotal)
+                .pendingAcquireTimeout(Duration.ofMillis(poolTimeoutMs))
+                .maxIdleTime(Duration.ofSeconds(keepAliveSeconds))
+                .metrics(true)
+                .build();
+
+        HttpClient http = HttpClient.create(pool)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs));
+        if (base.startsWith("https://")) {
+            http = http.secure().protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+
+        return builder
+                .baseUrl(base)
+                .clientConnector(new ReactorClientHttpConnector(http))
+                .build();
+    }
+
+    @Bean
+    public RestTemplate keycloakTokenRestTemplate(RestTemplateBuilder builder, CloseableHttpClient keycloakHttpClient) {
+        return builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(keycloakHttpClient))
+                .build();
+    }
+
+    private static void poolGauge(MeterRegistry meters, PoolingHttpClientConnectionManager cm,
+                                  String name, ToIntFunction<PoolStats> stat) {
+        Gauge.builder("http.client.pool." + name, cm, m -> stat.applyAsInt(m.getTotalStats()))
+                .tag("pool", "keycloak")
+                .register(meters);
+    }
+}
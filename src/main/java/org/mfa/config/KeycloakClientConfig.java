@@ -1,5 +1,9 @@
 package org.mfa.config;
 
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.jboss.resteasy.client.jaxrs.engines.URLConnectionEngine;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
@@ -8,6 +12,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class KeycloakClientConfig {
 
@@ -23,9 +29,32 @@ public class KeycloakClientConfig {
     private String adminUsername;
     @Value("${keycloak.password}")
     private String adminPassword;
+    @Value("${keycloak.admin.connection-pool-size:50}")
+    private int connectionPoolSize;
+    @Value("${keycloak.admin.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+    @Value("${keycloak.admin.read-timeout-ms:10000}")
+    private long readTimeoutMs;
+    @Value("${keycloak.admin.token-min-validity-seconds:30}")
+    private long tokenMinValiditySeconds;
+    @Value("${mfa.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    /** Token endpoint calls use their own small client, so the token filter never sees them. */
+    @Bean
+    public AdminAccessToken keycloakAdminToken() {
+        Client tokenClient = restClient(2).build();
+        return new AdminAccessToken(
+                tokenClient.target(serverUrl).path("realms").path(realm).path("protocol/openid-connect/token"),
+                clientId, adminUsername, adminPassword, tokenMinValiditySeconds);
+    }
 
+    /**
+     * The token is supplied by {@link AdminAccessToken}; the {@code authorization} placeholder only
+     * stops the builder from creating its own (monitor-based) token manager.
+     */
     @Bean
-    public Keycloak keycloakAdminClient() {
+    public Keycloak keycloakAdminClient(AdminAccessToken adminToken) {
         return KeycloakBuilder.builder()
                 .serverUrl(serverUrl)                      // Keycloak base URL (no "/auth" in new versions)
                 .realm(realm)                              // Realm to log into (typically "master" for realm creation)
@@ -34,7 +63,37 @@ public class KeycloakClientConfig {
 //                .clientSecret(clientSecret)                // (Optional, omit if not needed)
                 .username(adminUsername)
                 .password(adminPassword)
+                .authorization("replaced-by-AdminAccessToken")
+                .resteasyClient(adminRestClient(adminToken))
                 .build();
     }
 
+    /**
+     * The admin client's default RESTEasy client pools only 10 connections and has no timeouts, so
+     * callers would queue on that pool; it is sized and bounded explicitly.
+     */
+    private Client adminRestClient(AdminAccessToken adminToken) {
+        return restClient(connectionPoolSize).register(adminToken).build();
+    }
+
+    /**
+     * At most {@code maxInFlight} concurrent calls. Apache HttpClient 4 (the default engine) waits
+     * for pooled connections and connects inside {@code synchronized} blocks, which pins virtual
+     * threads, so with {@code mfa.threads.virtual=true} calls go through {@link URLConnectionEngine}
+     * instead: on Java 21 HttpURLConnection and its keep-alive cache use j.u.c locks, and
+     * {@link BoundedClientHttpEngine} provides the limit. The JDK keeps at most {@code http.maxConnections}
+     * (default 5) idle connections per host, so set it to the pool size in virtual mode.
+     */
+    private ResteasyClientBuilder restClient(int maxInFlight) {
+        ResteasyClientBuilder builder = ((ResteasyClientBuilder) ClientBuilder.newBuilder())
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS);
+        if (!virtualThreads) {
+            return builder.connectionPoolSize(maxInFlight).maxPooledPerRoute(maxInFlight);
+        }
+        URLConnectionEngine engine = new URLConnectionEngine();
+        engine.setConnectTimeout((int) connectTimeoutMs);
+        engine.setReadTimeout((int) readTimeoutMs);
+        return builder.httpEngine(new BoundedClientHttpEngine(engine, maxInFlight));
+    }
 }
\ No newline at end of file
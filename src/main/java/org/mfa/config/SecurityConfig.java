@@ -1,12 +1,10 @@
 package org.mfa.config;
 
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.beans.factory.annotation.Value;
+import org.mfa.security.JwtVerifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -16,20 +14,17 @@ import org.springframework.security.web.authentication.preauth.AbstractPreAuthen
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 
 @Configuration
 public class SecurityConfig {
 
-    @Value("${jwt.secret}") String jwtSecret;
-
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, JwtVerifier jwtVerifier) throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
                 .cors(cors -> {}) // <-- IMPORTANT: let Spring Security apply CORS
 
-                .addFilterBefore(new JwtFilter(jwtSecret), AbstractPreAuthenticatedProcessingFilter.class)
+                .addFilterBefore(new JwtFilter(jwtVerifier), AbstractPreAuthenticatedProcessingFilter.class)
 
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()   // preflight allowed
@@ -48,8 +43,8 @@ public class SecurityConfig {
     }
 
     static class JwtFilter extends OncePerRequestFilter {
-        private final byte[] key;
-        JwtFilter(String secret) { this.key = secret.getBytes(StandardCharsets.UTF_8); }
+        private final JwtVerifier verifier;
+        JwtFilter(JwtVerifier verifier) { this.verifier = verifier; }
 
         @Override protected void doFilterInternal(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
                 throws ServletException, IOException {
@@ -61,7 +56,7 @@ public class SecurityConfig {
 
             String token = auth.substring(7);
             try {
-                Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(key)).build().parseClaimsJws(token);
+                verifier.verify(token);
                 chain.doFilter(req, resp);
             } catch (Exception e) {
                 resp.setStatus(401);
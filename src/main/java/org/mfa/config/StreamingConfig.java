@@ -0,0 +1,30 @@
+package org.mfa.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Timeout of {@code StreamingResponseBody} responses (user stream, import, batch update/delete,
+ * export): {@code streaming.timeout-ms}, default 30 minutes. Without it Tomcat's 30 second async
+ * default applies and cuts long exports off. When it fires the writing thread is interrupted and the
+ * response is aborted; an export can then be resumed with its {@code cursor}.
+ */
+@Configuration
+public class StreamingConfig {
+
+    @Value("${streaming.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Bean
+    public WebMvcConfigurer streamingTimeoutConfigurer() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setDefaultTimeout(timeoutMs);
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package org.mfa.config;
+
+import com.twilio.http.NetworkHttpClient;
+import com.twilio.http.TwilioRestClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Twilio client over a pooled HTTP client with explicit timeouts, used instead of the global
+ * {@code Twilio.init} singleton. Building it does no I/O. Not defined with {@code sms.provider=fake},
+ * so the app starts without Twilio credentials there.
+ */
+@Configuration
+public class TwilioConfig {
+
+    @Value("${twilio.http.max-total:50}")
+    private int maxTotal;
+    @Value("${twilio.http.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+    @Value("${twilio.http.read-timeout-ms:10000}")
+    private int readTimeoutMs;
+    @Value("${twilio.http.pool-timeout-ms:1000}")
+    private int poolTimeoutMs;
+    @Value("${twilio.http.keep-alive-seconds:30}")
+    private long keepAliveSeconds;
+
+    @Bean
+    @ConditionalOnExpression("'${sms.provider:twilio-verify}' != 'fake'")
+    public TwilioRestClient twilioRestClient(@Value("${twilio.account-sid}") String accountSid,
+                                             @Value("${twilio.auth-token}") String authToken) {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(keepAliveSeconds, TimeUnit.SECONDS);
+        cm.setMaxTotal(maxTotal);
+        cm.setDefaultMaxPerRoute(maxTotal);
+
+        HttpClientBuilder http = HttpClientBuilder.create()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutMs)
+                        .setSocketTimeout(readTimeoutMs)
+                        .setConnectionRequestTimeout(poolTimeoutMs)
+                        .build())
+                .evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS);
+
+        return new TwilioRestClient.Builder(accountSid, authToken)
+                .httpClient(new NetworkHttpClient(http))
+                .build();
+    }
+}
@@ -1,13 +1,20 @@
 package org.mfa.controller;
 
 import org.mfa.dto.*;
+import org.mfa.util.OtpSendLimiter;
 import org.mfa.util.PendingMfaStore;
 import org.mfa.service.DirectGrantService;
 import org.mfa.util.EmailSender;
-import org.mfa.service.TwilioVerifyService;
-import org.mfa.security.JwtService;
+import org.mfa.service.TotpVerifier;
+import org.mfa.service.SmsOtpProvider;
+import org.mfa.service.UserSnapshotService;
+import org.mfa.service.CredentialTypeCache;
+import org.mfa.security.DeviceTrustService;
+import org.mfa.security.RefreshTokenService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
 import org.keycloak.admin.client.Keycloak;
-import org.keycloak.admin.client.resource.RealmResource;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -25,6 +32,7 @@ import java.net.URI;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletionException;
 
 /**
  * Combined controller: Email OTP + TOTP, backend-orchestrated with Keycloak.
@@ -34,6 +42,8 @@ import java.util.*;
  * - POST /auth/mfa/email/verify
  * - POST /auth/mfa/totp/enroll
  * - POST /auth/mfa/totp/verify
+ * - POST /auth/token/refresh
+ * - POST /auth/token/revoke
  */
 @RestController
 @RequestMapping("/auth")
@@ -44,21 +54,44 @@ public class AuthController {
     private final DirectGrantService dgs;
     private final PendingMfaStore store;
     private final EmailSender emailSender;
-    private final JwtService jwt;
-    private final TwilioVerifyService smsVerify;
+    private final RefreshTokenService tokens;
+    private final SmsOtpProvider sms;
+    private final UserSnapshotService snapshots;
+    private final DistributionSummary loginKeycloakCalls;
+    private final RestTemplate tokenRest;
+    private final DeviceTrustService deviceTrust;
+    private final TotpVerifier totp;
+    private final OtpSendLimiter sendLimiter;
+    private final CredentialTypeCache credentialTypes;
 
     public AuthController(Keycloak keycloak,
                           DirectGrantService dgs,
                           PendingMfaStore store,
                           EmailSender emailSender,
-                          JwtService jwt,
-                          TwilioVerifyService smsVerify) {
+                          RefreshTokenService tokens,
+                          SmsOtpProvider sms,
+                          UserSnapshotService snapshots,
+                          MeterRegistry meters,
+                          RestTemplate keycloakTokenRestTemplate,
+                          DeviceTrustService deviceTrust,
+                          TotpVerifier totp,
+                          OtpSendLimiter sendLimiter,
+                          CredentialTypeCache credentialTypes) {
         this.keycloak = keycloak;
         this.dgs = dgs;
         this.store = store;
         this.emailSender = emailSender;
-        this.jwt = jwt;
-        this.smsVerify = smsVerify;
+        this.tokens = tokens;
+        this.sms = sms;
+        this.snapshots = snapshots;
+        this.tokenRest = keycloakTokenRestTemplate;
+        this.deviceTrust = deviceTrust;
+        this.totp = totp;
+        this.sendLimiter = sendLimiter;
+        this.credentialTypes = credentialTypes;
+        this.loginKeycloakCalls = DistributionSummary.builder("mfa.login.keycloak.calls")
+                .description("Keycloak round trips made by a single POST /auth/login")
+                .register(meters);
     }
 
     @Value("${keycloak.server-url}")
@@ -80,67 +113,52 @@ public class AuthController {
 
     @PostMapping("/login")
     public ResponseEntity<?> login(@RequestBody LoginRequest req) {
+        int[] kcCalls = {0};
+        try {
+            return doLogin(req, kcCalls);
+        } finally {
+            loginKeycloakCalls.record(kcCalls[0]);
+        }
+    }
+
+    private ResponseEntity<?> doLogin(LoginRequest req, int[] kcCalls) {
         String realm = Optional.ofNullable(req.getRealm()).orElse("").trim();
         String username = Optional.ofNullable(req.getUsername()).orElse("").trim();
         String password = Optional.ofNullable(req.getPassword()).orElse("");
 
-        RealmResource rr;
+        // An unknown realm makes the search itself fail, so no separate existence probe is needed
+        List<UserRepresentation> users;
         try {
-            rr = keycloak.realms().realm(realm);
-            rr.roles().list();
+            kcCalls[0]++;
+            users = keycloak.realms().realm(realm).users().search(username, true);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_REALM"));
         }
 
-        var users = rr.users().search(username, true);
         if (users == null || users.isEmpty()) {
             return ResponseEntity.status(404).body(new ErrorResponse("USER_NOT_FOUND"));
         }
         String userId = users.get(0).getId();
 
+        kcCalls[0]++;
         var dag = dgs.validateCredentialsDetailed(realm, username, password, noOtpClientId, noOtpClientSecret);
 
-        // Helper to build the dynamic MFA methods list
-        java.util.function.Supplier<String[]> computeMethods = () -> {
-            var methods = new ArrayList<String>();
-            // Email OTP only if email exists & is verified (optional: allow unverified if you want)
-            var rep = rr.users().get(userId).toRepresentation();
-            boolean hasEmail = rep.getEmail() != null && !rep.getEmail().isBlank();
-            if (hasEmail) methods.add("email");
-            methods.add("totp");
-            String phone = getUserPhoneE164(realm, userId);
-            if (phone != null) methods.add("sms");
-            return methods.toArray(String[]::new);
-        };
-
         if (!dag.ok()) {
             String err  = Optional.ofNullable(dag.error()).orElse("");
             String desc = Optional.ofNullable(dag.errorDescription()).orElse("").toLowerCase();
 
             // When required actions are pending, Keycloak blocks password grant
             if ("invalid_grant".equals(err) && desc.contains("account is not fully set up")) {
-                // Build needs {}
-                var ur  = rr.users().get(userId);
-                var rep = ur.toRepresentation();
-
-                boolean emailMissing = (rep.getEmail() == null || rep.getEmail().isBlank());
-                boolean emailVerified = Boolean.TRUE.equals(rep.isEmailVerified());
-                boolean hasTotp = userHasTotp(realm, userId);
-                var ra = Optional.ofNullable(rep.getRequiredActions()).orElse(List.of());
-
-                var needs = new Needs();
-                needs.setEmailMissing(emailMissing);
-                needs.setVerifyEmail(!emailMissing && !emailVerified || ra.contains("VERIFY_EMAIL"));
-                needs.setConfigureTotp(!hasTotp || ra.contains("CONFIGURE_TOTP"));
+                var snap = snapshots.load(realm, userId, kcCalls);
 
                 // Create attempt so the UI can continue the flow
                 String attemptId = store.create(realm, username, userId, password);
 
                 return ResponseEntity.ok(new LoginResponse(
                         true,
-                        computeMethods.get(),
+                        snap.methods(),
                         attemptId,
-                        needs
+                        snap.needs(true)
                 ));
             }
 
@@ -150,25 +168,23 @@ public class AuthController {
             return ResponseEntity.status(401).body(new ErrorResponse("LOGIN_FAILED"));
         }
 
+        // Credentials OK on a remembered device: skip the second factor entirely
+        if (deviceTrust.isTrusted(req.getDeviceToken(), realm, userId, req.getDeviceId())) {
+            return ResponseEntity.ok(tokens.issue(realm, userId, username));
+        }
+
         // Credentials OK and no blocking required actions; proceed to MFA
+        var snap = snapshots.load(realm, userId, kcCalls);
         String attemptId = store.create(realm, username, userId, password);
 
-        var needs = new Needs();
-        var rep = rr.users().get(userId).toRepresentation();
-        boolean emailMissing = (rep.getEmail() == null || rep.getEmail().isBlank());
-        boolean emailVerified = Boolean.TRUE.equals(rep.isEmailVerified());
-        boolean hasTotp = userHasTotp(realm, userId);
-        needs.setEmailMissing(emailMissing);
-        needs.setVerifyEmail(!emailMissing && !emailVerified);
-        needs.setConfigureTotp(!hasTotp);
-
-        return ResponseEntity.ok(new LoginResponse(true, computeMethods.get(), attemptId, needs));
+        return ResponseEntity.ok(new LoginResponse(true, snap.methods(), attemptId, snap.needs(false)));
     }
 
     @PostMapping("/mfa/email/send")
-    public ResponseEntity<?> sendEmailOtp(@RequestBody SendEmailReq req) {
+    public ResponseEntity<?> sendEmailOtp(@RequestBody SendEmailReq req, HttpServletRequest http) {
         var a = store.get(req.getLoginAttemptId());
         if (a == null) return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        sendLimiter.acquire("email", req.getLoginAttemptId(), a.getUserId(), http.getRemoteAddr());
 
         UserRepresentation u = keycloak.realms().realm(a.getRealm())
                 .users().get(a.getUserId()).toRepresentation();
@@ -182,8 +198,10 @@ public class AuthController {
         Instant exp = Instant.now().plusSeconds(5 * 60); // 5 min TTL
         store.setEmailOtp(req.getLoginAttemptId(), code, exp);
 
-        // Send email (your EmailSender implementation)
-        emailSender.sendOtp(email, code);
+        // Queued; the SMTP round trip happens off the request thread
+        if (!emailSender.sendOtp(email, code)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ErrorResponse("EMAIL_QUEUE_FULL"));
+        }
 
         return ResponseEntity.ok(Map.of("sent", true));
     }
@@ -191,14 +209,19 @@ public class AuthController {
     @PostMapping("/mfa/email/verify")
     public ResponseEntity<?> verifyEmailOtp(@RequestBody VerifyEmailReq req) {
         var a = store.get(req.getLoginAttemptId());
-        if (a == null) return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        }
 
+        // The guess stays counted as a failure unless the code matches
         boolean ok = store.consumeValidEmailOtp(req.getLoginAttemptId(), req.getCode());
         if (!ok) return ResponseEntity.status(400).body(new ErrorResponse("INVALID_OR_EXPIRED_OTP"));
 
-        String token = jwt.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        FinalTokenResponse issued = tokens.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        if (req.isRememberDevice()) issued.setDeviceToken(deviceTrust.remember(a.getRealm(), a.getUserId(), req.getDeviceId()));
         store.remove(req.getLoginAttemptId());
-        return ResponseEntity.ok(new FinalTokenResponse(token));
+        store.clearFailures(a.getUserId());
+        return ResponseEntity.ok(issued);
     }
 
     @PostMapping("/mfa/totp/enroll")
@@ -220,19 +243,30 @@ public class AuthController {
     @PostMapping("/mfa/totp/verify")
     public ResponseEntity<?> verifyTotp(@RequestBody VerifyTotpRequest req) {
         var a = store.get(req.getLoginAttemptId());
-        if (a == null) return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
-        if (a.getPassword() == null || a.getPassword().isBlank()) {
-            return ResponseEntity.status(400).body(new ErrorResponse("PASSWORD_MISSING"));
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
         }
 
-        boolean ok = dgs.validateCredentialsWithTotp(a.getRealm(), a.getUsername(), a.getPassword(), req.getCode());
-        if (!ok) {
+        var local = totp.verify(a.getRealm(), a.getUserId(), req.getCode());
+        if (local == TotpVerifier.Result.NO_SECRET) {
+            // No locally verifiable secret: let Keycloak check the code with a password grant
+            String password = store.password(a);
+            if (password == null || password.isBlank()) {
+                store.refundGuess(req.getLoginAttemptId(), a.getUserId());
+                return ResponseEntity.status(400).body(new ErrorResponse("PASSWORD_MISSING"));
+            }
+            if (!dgs.validateCredentialsWithTotp(a.getRealm(), a.getUsername(), password, req.getCode())) {
+                return ResponseEntity.status(400).body(new ErrorResponse("INVALID_TOTP"));
+            }
+        } else if (local != TotpVerifier.Result.VALID) {
             return ResponseEntity.status(400).body(new ErrorResponse("INVALID_TOTP"));
         }
 
-        String token = jwt.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        FinalTokenResponse issued = tokens.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        if (req.isRememberDevice()) issued.setDeviceToken(deviceTrust.remember(a.getRealm(), a.getUserId(), req.getDeviceId()));
         store.remove(req.getLoginAttemptId());
-        return ResponseEntity.ok(new FinalTokenResponse(token));
+        store.clearFailures(a.getUserId());
+        return ResponseEntity.ok(issued);
     }
 
     @PostMapping("/mfa/totp/start-session")
@@ -301,7 +335,7 @@ public class AuthController {
                 form.add("client_secret", browserClientSecret);
                 form.add("redirect_uri", browserRedirectUri);
 
-                new RestTemplate().postForEntity(tokenUrl, new HttpEntity<>(form, new HttpHeaders()), String.class);
+                tokenRest.postForEntity(tokenUrl, new HttpEntity<>(form, new HttpHeaders()), String.class);
             }
         } catch (Exception ignored) {
             // In PoC we can ignore errors here; the important part is the OTP required action was completed.
@@ -316,33 +350,61 @@ public class AuthController {
     }
 
     @PostMapping("/mfa/sms/send")
-    public ResponseEntity<?> sendSms(@RequestBody SendSmsReq req) {
+    public ResponseEntity<?> sendSms(@RequestBody SendSmsReq req, HttpServletRequest http) {
         var a = store.get(req.getLoginAttemptId());
         if (a == null) return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        sendLimiter.acquire("sms", req.getLoginAttemptId(), a.getUserId(), http.getRemoteAddr());
 
         String phone = getUserPhoneE164(a.getRealm(), a.getUserId());
         if (phone == null) return ResponseEntity.badRequest().body(new ErrorResponse("NO_PHONE_ON_ACCOUNT"));
 
-        // Optional local throttling: e.g., 30s cooldown using store timestamps
-        // (Verify also rate-limits on Twilio side)
-        smsVerify.sendSms(phone);
+        try {
+            sms.send(phone).join();
+        } catch (CompletionException e) {
+            return ResponseEntity.status(502).body(new ErrorResponse("SMS_PROVIDER_ERROR"));
+        }
         return ResponseEntity.ok(java.util.Map.of("sent", true));
     }
 
     @PostMapping("/mfa/sms/verify")
     public ResponseEntity<?> verifySms(@RequestBody VerifySmsReq req) {
         var a = store.get(req.getLoginAttemptId());
-        if (a == null) return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_ATTEMPT"));
+        }
 
         String phone = getUserPhoneE164(a.getRealm(), a.getUserId());
-        if (phone == null) return ResponseEntity.badRequest().body(new ErrorResponse("NO_PHONE_ON_ACCOUNT"));
+        if (phone == null) {
+            store.refundGuess(req.getLoginAttemptId(), a.getUserId());
+            return ResponseEntity.badRequest().body(new ErrorResponse("NO_PHONE_ON_ACCOUNT"));
+        }
 
-        boolean ok = smsVerify.checkCode(phone, req.getCode());
+        boolean ok;
+        try {
+            ok = sms.check(phone, req.getCode()).join();
+        } catch (CompletionException e) {
+            store.refundGuess(req.getLoginAttemptId(), a.getUserId());
+            return ResponseEntity.status(502).body(new ErrorResponse("SMS_PROVIDER_ERROR"));
+        }
         if (!ok) return ResponseEntity.status(400).body(new ErrorResponse("INVALID_OR_EXPIRED_OTP"));
 
-        String token = jwt.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        FinalTokenResponse issued = tokens.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        if (req.isRememberDevice()) issued.setDeviceToken(deviceTrust.remember(a.getRealm(), a.getUserId(), req.getDeviceId()));
         store.remove(req.getLoginAttemptId());
-        return ResponseEntity.ok(new FinalTokenResponse(token));
+        store.clearFailures(a.getUserId());
+        return ResponseEntity.ok(issued);
+    }
+
+    @PostMapping("/token/refresh")
+    public ResponseEntity<?> refreshToken(@RequestBody RefreshTokenRequest req) {
+        return ResponseEntity.ok(tokens.refresh(req.getRefreshToken()));
+    }
+
+    @PostMapping("/token/revoke")
+    public ResponseEntity<?> revokeToken(@RequestBody RefreshTokenRequest req) {
+        tokens.revoke(req.getRefreshToken());
+        deviceTrust.forget(req.getDeviceToken());
+        return ResponseEntity.ok(Map.of("revoked", true));
     }
 
     @PostMapping("/profile/email")
@@ -395,22 +457,13 @@ public class AuthController {
     }
 
     private boolean userHasTotp(String realm, String userId) {
-        try {
-            var creds = keycloak.realms().realm(realm).users().get(userId).credentials();
-            if (creds == null) return false;
-            return creds.stream().anyMatch(c -> "otp".equalsIgnoreCase(c.getType()));
-        } catch (Exception e) {
-            return false;
-        }
+        return credentialTypes.hasOtp(realm, userId,
+                () -> keycloak.realms().realm(realm).users().get(userId).credentials());
     }
 
     private String getUserPhoneE164(String realm, String userId) {
         var rep = keycloak.realms().realm(realm).users().get(userId).toRepresentation();
-        if (rep.getAttributes() == null) return null;
-        var vals = rep.getAttributes().get("phone_number");
-        if (vals == null || vals.isEmpty()) return null;
-        var s = vals.get(0);
-        return (s != null && s.trim().startsWith("+")) ? s.trim() : null;
+        return UserSnapshotService.Snapshot.phoneE164(rep);
     }
 
 }
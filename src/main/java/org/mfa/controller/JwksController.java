@@ -0,0 +1,34 @@
+package org.mfa.controller;
+
+import org.mfa.security.JwtKeyRing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Duration;
+
+@RestController
+public class JwksController {
+
+    private final JwtKeyRing keyRing;
+    private final CacheControl cacheControl;
+
+    public JwksController(JwtKeyRing keyRing,
+                          @Value("${jwt.jwks.max-age-seconds:300}") long maxAgeSeconds) {
+        this.keyRing = keyRing;
+        this.cacheControl = CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)).cachePublic();
+    }
+
+    /** Serves the pre-rendered key set; conditional requests get a 304 without a body. */
+    @GetMapping(value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> jwks(WebRequest request) {
+        if (!keyRing.enabled()) return ResponseEntity.notFound().build();
+        String etag = keyRing.jwksEtag();
+        if (request.checkNotModified(etag)) return null;
+        return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).body(keyRing.jwksJson());
+    }
+}
@@ -0,0 +1,38 @@
+package org.mfa.controller;
+
+import org.mfa.dto.KeycloakEventNotification;
+import org.mfa.service.KeycloakEventService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+@RestController
+public class KeycloakEventController {
+
+    private final KeycloakEventService events;
+    private final byte[] secret;
+
+    public KeycloakEventController(KeycloakEventService events,
+                                   @Value("${mfa.credential-cache.webhook-secret:}") String secret) {
+        this.events = events;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Webhook target for a Keycloak event listener; disabled while no shared secret is configured. */
+    @PostMapping("/internal/keycloak/events")
+    public ResponseEntity<Void> onEvent(@RequestHeader(value = "X-Webhook-Secret", required = false) String given,
+                                        @RequestBody KeycloakEventNotification event) {
+        if (secret.length == 0) return ResponseEntity.notFound().build();
+        if (given == null || !MessageDigest.isEqual(secret, given.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(401).build();
+        }
+        events.onEvent(event.getRealmId(), event.getUserId(), event.getResourcePath());
+        return ResponseEntity.noContent().build();
+    }
+}
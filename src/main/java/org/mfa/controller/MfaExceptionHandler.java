@@ -0,0 +1,44 @@
+package org.mfa.controller;
+
+import org.mfa.dto.ErrorResponse;
+import org.mfa.security.RefreshTokenService;
+import org.mfa.util.OtpSendLimiter;
+import org.mfa.util.PendingMfaStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice(assignableTypes = {AuthController.class, ReactiveAuthController.class})
+public class MfaExceptionHandler {
+
+    @ExceptionHandler(PendingMfaStore.CapacityExceededException.class)
+    public ResponseEntity<?> onStoreFull(PendingMfaStore.CapacityExceededException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ErrorResponse("TOO_MANY_PENDING_LOGINS"));
+    }
+
+    @ExceptionHandler(PendingMfaStore.AttemptTooLargeException.class)
+    public ResponseEntity<?> onAttemptTooLarge(PendingMfaStore.AttemptTooLargeException e) {
+        return ResponseEntity.badRequest().body(new ErrorResponse("LOGIN_INPUT_TOO_LARGE"));
+    }
+
+    @ExceptionHandler(RefreshTokenService.RefreshRejectedException.class)
+    public ResponseEntity<?> onRefreshRejected(RefreshTokenService.RefreshRejectedException e) {
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new ErrorResponse(e.getCode()));
+    }
+
+    @ExceptionHandler(OtpSendLimiter.RateLimitedException.class)
+    public ResponseEntity<?> onRateLimited(OtpSendLimiter.RateLimitedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(new ErrorResponse("OTP_RATE_LIMITED"));
+    }
+
+    @ExceptionHandler(PendingMfaStore.LockedOutException.class)
+    public ResponseEntity<?> onLockedOut(PendingMfaStore.LockedOutException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(new ErrorResponse("MFA_LOCKED"));
+    }
+}
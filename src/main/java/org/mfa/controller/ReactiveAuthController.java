@@ -0,0 +1,249 @@
+package org.mfa.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mfa.dto.*;
+import org.mfa.security.DeviceTrustService;
+import org.mfa.security.RefreshTokenService;
+import org.mfa.service.CredentialTypeCache;
+import org.mfa.service.DirectGrantService;
+import org.mfa.service.ReactiveKeycloakClient;
+import org.mfa.service.TotpVerifier;
+import org.mfa.service.SmsOtpProvider;
+import org.mfa.service.UserSnapshotService;
+import org.mfa.util.EmailSender;
+import org.mfa.util.OtpSendLimiter;
+import org.mfa.util.PendingMfaStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Non-blocking variant of the login + MFA endpoints in {@link AuthController}, same request and
+ * response bodies, mounted under /auth/rx. Keycloak is reached through {@link ReactiveKeycloakClient},
+ * so a Tomcat worker is released while Keycloak answers; email OTPs are queued by {@link EmailSender}
+ * and Twilio (blocking SDK) runs on the bounded-elastic scheduler.
+ * <p>
+ * Login: the exact-username search (which already returns the full representation) runs first;
+ * the password grant and the credentials fetch (skipped when {@link CredentialTypeCache} has the
+ * user) then run concurrently.
+ */
+@RestController
+@RequestMapping("/auth/rx")
+@CrossOrigin(origins = "http://localhost:4200")
+public class ReactiveAuthController {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ReactiveKeycloakClient rx;
+    private final PendingMfaStore store;
+    private final EmailSender emailSender;
+    private final RefreshTokenService tokens;
+    private final SmsOtpProvider sms;
+    private final DeviceTrustService deviceTrust;
+    private final TotpVerifier totp;
+    private final OtpSendLimiter sendLimiter;
+    private final CredentialTypeCache credentialTypes;
+
+    public ReactiveAuthController(ReactiveKeycloakClient rx,
+                                  PendingMfaStore store,
+                                  EmailSender emailSender,
+                                  RefreshTokenService tokens,
+                                  SmsOtpProvider sms,
+                                  DeviceTrustService deviceTrust,
+                                  TotpVerifier totp,
+                                  OtpSendLimiter sendLimiter,
+                                  CredentialTypeCache credentialTypes) {
+        this.rx = rx;
+        this.store = store;
+        this.emailSender = emailSender;
+        this.tokens = tokens;
+        this.sms = sms;
+        this.deviceTrust = deviceTrust;
+        this.totp = totp;
+        this.sendLimiter = sendLimiter;
+        this.credentialTypes = credentialTypes;
+    }
+
+    @Value("${login.nootp.client-id}") private String noOtpClientId;
+    @Value("${login.nootp.client-secret}") private String noOtpClientSecret;
+
+    @PostMapping("/login")
+    public Mono<ResponseEntity<Object>> login(@RequestBody LoginRequest req) {
+        String realm = Optional.ofNullable(req.getRealm()).orElse("").trim();
+        String username = Optional.ofNullable(req.getUsername()).orElse("").trim();
+        String password = Optional.ofNullable(req.getPassword()).orElse("");
+
+        return rx.searchExact(realm, username)
+                .map(Optional::of)
+                .onErrorReturn(Optional.empty())
+                .flatMap(found -> {
+                    if (found.isEmpty()) return error(400, "INVALID_REALM");
+                    List<UserRepresentation> users = found.get();
+                    if (users == null || users.isEmpty()) return error(404, "USER_NOT_FOUND");
+
+                    UserRepresentation user = users.get(0);
+                    if (deviceTrust.isTrusted(req.getDeviceToken(), realm, user.getId(), req.getDeviceId())) {
+                        // Remembered device: only the password grant is needed unless it fails
+                        return rx.passwordGrant(realm, username, password, null, noOtpClientId, noOtpClientSecret)
+                                .flatMap(dag -> dag.ok()
+                                        ? ok(tokens.issue(realm, user.getId(), username))
+                                        : credentialTypes(realm, user.getId()).flatMap(types -> afterGrant(
+                                                realm, username, password, user.getId(), dag,
+                                                new UserSnapshotService.Snapshot(user, types))));
+                    }
+                    return Mono.zip(
+                                    rx.passwordGrant(realm, username, password, null, noOtpClientId, noOtpClientSecret),
+                                    credentialTypes(realm, user.getId()))
+                            .flatMap(t -> afterGrant(realm, username, password, user.getId(),
+                                    t.getT1(), new UserSnapshotService.Snapshot(user, t.getT2())));
+                });
+    }
+
+    private Mono<ResponseEntity<Object>> afterGrant(String realm, String username, String password, String userId,
+                                                    DirectGrantService.DagResult dag,
+                                                    UserSnapshotService.Snapshot snap) {
+        if (dag.ok()) {
+            String attemptId = store.create(realm, username, userId, password);
+            return ok(new LoginResponse(true, snap.methods(), attemptId, snap.needs(false)));
+        }
+
+        String err = Optional.ofNullable(dag.error()).orElse("");
+        String desc = Optional.ofNullable(dag.errorDescription()).orElse("").toLowerCase();
+
+        // When required actions are pending, Keycloak blocks password grant
+        if ("invalid_grant".equals(err) && desc.contains("account is not fully set up")) {
+            String attemptId = store.create(realm, username, userId, password);
+            return ok(new LoginResponse(true, snap.methods(), attemptId, snap.needs(true)));
+        }
+        if ("invalid_grant".equals(err) && desc.contains("invalid user credentials")) {
+            return error(401, "INVALID_PASSWORD");
+        }
+        return error(401, "LOGIN_FAILED");
+    }
+
+    @PostMapping("/mfa/email/send")
+    public Mono<ResponseEntity<Object>> sendEmailOtp(@RequestBody SendEmailReq req, HttpServletRequest http) {
+        var a = store.get(req.getLoginAttemptId());
+        if (a == null) return error(400, "INVALID_ATTEMPT");
+        sendLimiter.acquire("email", req.getLoginAttemptId(), a.getUserId(), http.getRemoteAddr());
+
+        return rx.user(a.getRealm(), a.getUserId()).flatMap(u -> {
+            String email = u.getEmail();
+            if (email == null || email.isBlank()) return error(400, "NO_EMAIL_ON_ACCOUNT");
+
+            String code = String.format("%06d", RANDOM.nextInt(1_000_000));
+            store.setEmailOtp(req.getLoginAttemptId(), code, Instant.now().plusSeconds(5 * 60));
+
+            return emailSender.sendOtp(email, code) ? ok(Map.of("sent", true)) : error(503, "EMAIL_QUEUE_FULL");
+        });
+    }
+
+    @PostMapping("/mfa/email/verify")
+    public Mono<ResponseEntity<Object>> verifyEmailOtp(@RequestBody VerifyEmailReq req) {
+        var a = store.get(req.getLoginAttemptId());
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) return error(400, "INVALID_ATTEMPT");
+
+        if (!store.consumeValidEmailOtp(req.getLoginAttemptId(), req.getCode())) {
+            return error(400, "INVALID_OR_EXPIRED_OTP");
+        }
+        return finish(req.getLoginAttemptId(), a, req.isRememberDevice(), req.getDeviceId());
+    }
+
+    @PostMapping("/mfa/totp/verify")
+    public Mono<ResponseEntity<Object>> verifyTotp(@RequestBody VerifyTotpRequest req) {
+        var a = store.get(req.getLoginAttemptId());
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) return error(400, "INVALID_ATTEMPT");
+
+        return Mono.fromCallable(() -> totp.verify(a.getRealm(), a.getUserId(), req.getCode()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(local -> {
+                    if (local == TotpVerifier.Result.VALID) {
+                        return finish(req.getLoginAttemptId(), a, req.isRememberDevice(), req.getDeviceId());
+                    }
+                    if (local != TotpVerifier.Result.NO_SECRET) return error(400, "INVALID_TOTP");
+                    String password = store.password(a);
+                    if (password == null || password.isBlank()) return refunded(req.getLoginAttemptId(), a, 400, "PASSWORD_MISSING");
+                    return rx.passwordGrant(a.getRealm(), a.getUsername(), password, req.getCode(), null, null)
+                            .flatMap(dag -> dag.ok()
+                                    ? finish(req.getLoginAttemptId(), a, req.isRememberDevice(), req.getDeviceId())
+                                    : error(400, "INVALID_TOTP"));
+                });
+    }
+
+    @PostMapping("/mfa/sms/send")
+    public Mono<ResponseEntity<Object>> sendSms(@RequestBody SendSmsReq req, HttpServletRequest http) {
+        var a = store.get(req.getLoginAttemptId());
+        if (a == null) return error(400, "INVALID_ATTEMPT");
+        sendLimiter.acquire("sms", req.getLoginAttemptId(), a.getUserId(), http.getRemoteAddr());
+
+        return rx.user(a.getRealm(), a.getUserId()).flatMap(u -> {
+            String phone = UserSnapshotService.Snapshot.phoneE164(u);
+            if (phone == null) return error(400, "NO_PHONE_ON_ACCOUNT");
+
+            return Mono.fromFuture(() -> sms.send(phone))
+                    .then(ok(Map.of("sent", true)))
+                    .onErrorResume(e -> error(502, "SMS_PROVIDER_ERROR"));
+        });
+    }
+
+    @PostMapping("/mfa/sms/verify")
+    public Mono<ResponseEntity<Object>> verifySms(@RequestBody VerifySmsReq req) {
+        var a = store.get(req.getLoginAttemptId());
+        if (a == null || !store.reserveGuess(req.getLoginAttemptId(), a.getUserId())) return error(400, "INVALID_ATTEMPT");
+
+        return rx.user(a.getRealm(), a.getUserId()).flatMap(u -> {
+            String phone = UserSnapshotService.Snapshot.phoneE164(u);
+            if (phone == null) return refunded(req.getLoginAttemptId(), a, 400, "NO_PHONE_ON_ACCOUNT");
+
+            return Mono.fromFuture(() -> sms.check(phone, req.getCode()))
+                    .map(Optional::of)
+                    .onErrorReturn(Optional.empty())
+                    .flatMap(ok -> {
+                        if (ok.isEmpty()) return refunded(req.getLoginAttemptId(), a, 502, "SMS_PROVIDER_ERROR");
+                        return ok.get()
+                                ? finish(req.getLoginAttemptId(), a, req.isRememberDevice(), req.getDeviceId())
+                                : error(400, "INVALID_OR_EXPIRED_OTP");
+                    });
+        });
+    }
+
+    /** Like {@link CredentialTypeCache#types}: a failing load degrades to "none" and is not cached. */
+    private Mono<Integer> credentialTypes(String realm, String userId) {
+        Integer cached = credentialTypes.cached(realm, userId);
+        if (cached != null) return Mono.just(cached);
+        return rx.credentials(realm, userId)
+                .map(creds -> credentialTypes.put(realm, userId, creds))
+                .onErrorReturn(0);
+    }
+
+    private Mono<ResponseEntity<Object>> finish(String attemptId, Attempt a, boolean rememberDevice, String deviceId) {
+        FinalTokenResponse issued = tokens.issue(a.getRealm(), a.getUserId(), a.getUsername());
+        if (rememberDevice) issued.setDeviceToken(deviceTrust.remember(a.getRealm(), a.getUserId(), deviceId));
+        store.remove(attemptId);
+        store.clearFailures(a.getUserId());
+        return ok(issued);
+    }
+
+    /** The guess taken for this check is given back: the code was never judged. */
+    private Mono<ResponseEntity<Object>> refunded(String attemptId, Attempt a, int status, String code) {
+        store.refundGuess(attemptId, a.getUserId());
+        return error(status, code);
+    }
+
+    private static Mono<ResponseEntity<Object>> ok(Object body) {
+        return Mono.just(ResponseEntity.ok(body));
+    }
+
+    private static Mono<ResponseEntity<Object>> error(int status, String code) {
+        return Mono.just(ResponseEntity.status(status).body(new ErrorResponse(code)));
+    }
+}
@@ -1,24 +1,65 @@
 package org.mfa.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
-import org.mfa.dto.ExportUserDto;
 import org.mfa.dto.UserApiV1;
+import org.mfa.dto.UserQueryApiV1;
+import org.mfa.service.UserBatchService;
+import org.mfa.service.UserExportService;
+import org.mfa.service.UserImportService;
 import org.mfa.service.UserService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/v1/users")
 @RequiredArgsConstructor
 public class UserController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final UserExportService userExportService;
+    private final UserImportService userImportService;
+    private final UserBatchService userBatchService;
 
     @GetMapping("/_{userGroupId}")
-    public ResponseEntity<List<UserApiV1>> listUsers(@PathVariable String userGroupId) {
-        return ResponseEntity.ok(userService.listUsers(userGroupId));
+    public ResponseEntity<List<UserApiV1>> listUsers(@PathVariable String userGroupId, UserQueryApiV1 query) {
+        return ResponseEntity.ok(userService.listUsers(userGroupId, query));
+    }
+
+    /**
+     * Every matching user as NDJSON (one JSON object per line), paged from Keycloak internally
+     * so memory stays constant regardless of realm size.
+     */
+    @GetMapping(value = "/_{userGroupId}/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUsers(@PathVariable String userGroupId, UserQueryApiV1 query) {
+        String realm = userService.resolveRealm(userGroupId);
+        StreamingResponseBody body = out -> userService.forEachUserPage(realm, query, page -> {
+            try {
+                for (UserApiV1 u : page) {
+                    out.write(objectMapper.writeValueAsBytes(u));
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
     }
 
     @PostMapping("/_{userGroupId}")
@@ -26,6 +67,46 @@ public class UserController {
         return ResponseEntity.status(201).body(userService.createUser(userGroupId, userApiV1));
     }
 
+    /**
+     * Bulk import of users with (optionally pre-hashed) credentials, e.g. the {@code users} of a realm
+     * export. Body: NDJSON ({@code application/x-ndjson}) or JSON (array or realm document).
+     * Response: one NDJSON result per row, then a summary line with users/sec.
+     */
+    @PostMapping(value = "/_{userGroupId}/import", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> importUsers(
+            @PathVariable String userGroupId,
+            @RequestParam(defaultValue = "SKIP") String ifExists,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            HttpServletRequest request) {
+        String realm = userService.resolveRealm(userGroupId);
+        boolean ndjson = contentType != null && contentType.startsWith("application/x-ndjson");
+        StreamingResponseBody body = out ->
+                userImportService.importUsers(realm, request.getInputStream(), ndjson, ifExists, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * PATCH many users (each item needs its {@code id}); per-item results streamed as NDJSON.
+     */
+    @PatchMapping(value = "/_{userGroupId}/_batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> updateUsers(@PathVariable String userGroupId,
+                                                             @RequestBody List<UserApiV1> users) {
+        String realm = userService.resolveRealm(userGroupId);
+        StreamingResponseBody body = out -> userBatchService.updateUsers(realm, users, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * DELETE many users by id; per-item results streamed as NDJSON.
+     */
+    @DeleteMapping(value = "/_{userGroupId}/_batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> deleteUsers(@PathVariable String userGroupId,
+                                                             @RequestBody List<String> userIds) {
+        String realm = userService.resolveRealm(userGroupId);
+        StreamingResponseBody body = out -> userBatchService.deleteUsers(realm, userIds, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
     @GetMapping("/_{userGroupId}/_{userId}")
     public ResponseEntity<UserApiV1> getUserById(@PathVariable String userGroupId, @PathVariable String userId) {
         return ResponseEntity.ok(userService.getUser(userGroupId, userId));
@@ -59,8 +140,49 @@ public class UserController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Streams every user of a realm as CSV or NDJSON, optionally gzipped. To resume an interrupted
+     * export pass {@code cursor} = previous cursor + number of records already received.
+     * Exports running longer than {@code streaming.timeout-ms} are aborted (see {@code StreamingConfig}).
+     */
     @GetMapping("/export")
-    public ResponseEntity<List<ExportUserDto>> exportUsers(@PathVariable String realm) {
-        return ResponseEntity.ok(userService.exportUsers(realm));
+    public ResponseEntity<StreamingResponseBody> exportUsers(
+            @RequestParam String realm,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestParam(defaultValue = "0") long cursor) {
+        var fmt = exportFormat(format);
+        if (cursor < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor must not be negative");
+        String ext = fmt == UserExportService.Format.CSV ? "csv" : "ndjson";
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                try (var gz = new GZIPOutputStream(out, 64 * 1024, true)) {
+                    userExportService.export(realm, fmt, cursor, gz);
+                }
+            } else {
+                userExportService.export(realm, fmt, cursor, out);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(gzip ? MediaType.parseMediaType("application/gzip")
+                        : fmt == UserExportService.Format.CSV ? MediaType.parseMediaType("text/csv") : NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + fileName(realm) + "-users." + ext + (gzip ? ".gz" : "") + "\"")
+                .body(body);
+    }
+
+    private static UserExportService.Format exportFormat(String format) {
+        try {
+            return UserExportService.Format.valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format: " + format);
+        }
+    }
+
+    /** Realm names may contain quotes, separators or control characters; keep header-safe ones only. */
+    private static String fileName(String realm) {
+        return realm.replaceAll("[^A-Za-z0-9._-]", "_");
     }
 }
\ No newline at end of file
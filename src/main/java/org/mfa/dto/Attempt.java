@@ -7,6 +7,10 @@ import lombok.NoArgsConstructor;
 
 import java.time.Instant;
 
+/**
+ * Read-only view of a pending attempt as returned by {@code PendingMfaStore.get}.
+ * The password is only held sealed; {@code PendingMfaStore.password} opens it.
+ */
 @Data
 @Builder
 @NoArgsConstructor
@@ -15,8 +19,7 @@ public class Attempt {
     private String realm;
     private String username;
     private String userId;
-    private String password;      // PoC: reuse on TOTP verify
-    private String emailOtp;
-    private Instant emailOtpExpiry;
+    private byte[] sealedPassword; // reused on TOTP verify (Keycloak grant)
     private Instant createdAt;
+    private int failedChecks;
 }
@@ -0,0 +1,25 @@
+package org.mfa.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one item of a batch PATCH/DELETE (one NDJSON line of the response).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResultApiV1 {
+
+    private String id;
+
+    /**
+     * UPDATED, DELETED, NOT_FOUND or FAILED.
+     */
+    private String status;
+
+    private String error;
+}
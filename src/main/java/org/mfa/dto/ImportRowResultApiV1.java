@@ -0,0 +1,32 @@
+package org.mfa.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one imported user (one NDJSON line of the import report).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportRowResultApiV1 {
+
+    /**
+     * 1-based position of the user in the uploaded file.
+     */
+    private long row;
+
+    private String username;
+
+    /**
+     * ADDED, SKIPPED, OVERWRITTEN or FAILED.
+     */
+    private String status;
+
+    private String id;
+
+    private String error;
+}
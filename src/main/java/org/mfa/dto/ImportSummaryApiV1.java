@@ -0,0 +1,22 @@
+package org.mfa.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Last line of the import report.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportSummaryApiV1 {
+    private boolean summary = true;
+    private long total;
+    private long added;
+    private long skipped;
+    private long overwritten;
+    private long failed;
+    private double seconds;
+    private double usersPerSecond;
+}
@@ -0,0 +1,17 @@
+package org.mfa.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** User or admin event pushed by a Keycloak event-listener webhook; unknown fields are ignored. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeycloakEventNotification {
+    private String realmId;
+    /** Set on user events. */
+    private String userId;
+    /** Set on admin events, e.g. {@code users/{id}/credentials/{credentialId}}. */
+    private String resourcePath;
+}
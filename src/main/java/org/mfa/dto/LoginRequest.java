@@ -11,4 +11,8 @@ public class LoginRequest {
     private String realm;
     private String username;
     private String password;
+    /** Client-generated, stable per browser/app install. */
+    private String deviceId;
+    /** Token from a previous "trust this device" verification. */
+    private String deviceToken;
 }
@@ -0,0 +1,14 @@
+package org.mfa.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RefreshTokenRequest {
+    private String refreshToken;
+    /** Optional; on revoke the remembered device is forgotten as well. */
+    private String deviceToken;
+}
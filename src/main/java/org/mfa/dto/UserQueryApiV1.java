@@ -0,0 +1,40 @@
+package org.mfa.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Query parameters for user listing. All fields are optional.
+ */
+@Data
+@NoArgsConstructor
+public class UserQueryApiV1 {
+
+    /**
+     * Free-text search over username, email, first and last name. When set, the field filters are ignored.
+     * Example: "dragos"
+     */
+    private String search;
+
+    private String username;
+    private String email;
+    private String firstName;
+    private String lastName;
+
+    /**
+     * Offset of the first user to return.
+     * Example: 0
+     */
+    private Integer first;
+
+    /**
+     * Page size (capped server-side). Defaults to 100, Keycloak's own default.
+     * Example: 100
+     */
+    private Integer max;
+
+    /**
+     * Skip attributes (phone number) for a lighter response.
+     */
+    private Boolean briefRepresentation;
+}
@@ -10,4 +10,6 @@ import lombok.NoArgsConstructor;
 public class VerifyTotpRequest {
     private String loginAttemptId;
     private String code;
+    private boolean rememberDevice;
+    private String deviceId;
 }
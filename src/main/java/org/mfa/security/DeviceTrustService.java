@@ -0,0 +1,166 @@
+package org.mfa.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.mfa.util.Macs;
+import org.mfa.util.PendingMfaStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * "Trust this device" tokens that let {@code /auth/login} skip the second factor. Off unless
+ * {@code mfa.device-trust.enabled=true}.
+ * <p>
+ * Tokens are stateless: {@code <payload>.<hmac(payload)>}, where the payload holds a random id,
+ * the issue and expiry times ({@code mfa.device-trust.days}) and a SHA-256 over realm, user id and
+ * the client's {@code deviceId}, so a token copied to another browser or account does not match.
+ * The HMAC key is {@code mfa.device-trust.secret} (base64) and must be the same on every replica.
+ * <p>
+ * Revocations ({@link #forget}, {@link #forgetUser}) are recorded in the {@link PendingMfaStore},
+ * so with {@code mfa.store.type=redis} they apply to all replicas.
+ */
+@Service
+public class DeviceTrustService {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder B64URL = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64URL_DECODER = Base64.getUrlDecoder();
+    /** id(16) issuedAt(8) expiresAt(8) binding(16) */
+    private static final int ID_BYTES = 16, BINDING_BYTES = 16, PAYLOAD_BYTES = ID_BYTES + 16 + BINDING_BYTES;
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final PendingMfaStore store;
+    private final Mac hmac;
+
+    private final Counter trusted;
+    private final Counter rejected;
+
+    public DeviceTrustService(@Value("${mfa.device-trust.enabled:false}") boolean enabled,
+                              @Value("${mfa.device-trust.days:30}") long days,
+                              @Value("${mfa.device-trust.secret:}") String secret,
+                              PendingMfaStore store,
+                              MeterRegistry meters) throws GeneralSecurityException {
+        if (enabled && secret.isBlank()) {
+            throw new IllegalStateException("mfa.device-trust.enabled=true needs mfa.device-trust.secret");
+        }
+        this.enabled = enabled;
+        this.ttlMillis = Duration.ofDays(days).toMillis();
+        this.store = store;
+        this.hmac = enabled
+                ? Macs.keyed("HmacSHA256", new SecretKeySpec(Base64.getDecoder().decode(secret.trim()), "HmacSHA256"))
+                : null;
+        this.trusted = Counter.builder("mfa.device-trust.checks").tag("result", "trusted").register(meters);
+        this.rejected = Counter.builder("mfa.device-trust.checks").tag("result", "rejected").register(meters);
+    }
+
+    /** Issues a token for this user/device, or null when disabled or no device id was sent. */
+    public String remember(String realm, String userId, String deviceId) {
+        if (!enabled || deviceId == null || deviceId.isBlank()) return null;
+        byte[] id = new byte[ID_BYTES];
+        RANDOM.nextBytes(id);
+        long now = System.currentTimeMillis();
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+                .put(id)
+                .putLong(now)
+                .putLong(now + ttlMillis)
+                .put(binding(realm, userId, deviceId))
+                .array();
+        return B64URL.encodeToString(payload) + "." + B64URL.encodeToString(sign(payload));
+    }
+
+    public boolean isTrusted(String deviceToken, String realm, String userId, String deviceId) {
+        if (!enabled || deviceToken == null || deviceId == null) return false;
+        ByteBuffer payload = verified(deviceToken);
+        if (payload == null) return reject();
+
+        byte[] id = new byte[ID_BYTES];
+        payload.get(id);
+        long issuedAt = payload.getLong();
+        long expiresAt = payload.getLong();
+        byte[] binding = new byte[BINDING_BYTES];
+        payload.get(binding);
+        if (expiresAt <= System.currentTimeMillis()
+                || !MessageDigest.isEqual(binding, binding(realm, userId, deviceId))
+                || store.revokedAt(deviceKey(id)) != 0
+                || store.revokedAt(userKey(userId)) >= issuedAt) {
+            return reject();
+        }
+        trusted.increment();
+        return true;
+    }
+
+    /** Revokes a single token (logout on that device); invalid tokens are ignored. */
+    public void forget(String deviceToken) {
+        if (!enabled || deviceToken == null) return;
+        ByteBuffer payload = verified(deviceToken);
+        if (payload == null) return;
+        byte[] id = new byte[ID_BYTES];
+        payload.get(id);
+        long remaining = payload.getLong(ID_BYTES + 8) - System.currentTimeMillis();
+        if (remaining > 0) store.revoke(deviceKey(id), remaining);
+    }
+
+    /**
+     * Revokes every token issued to the user so far, e.g. after a password change or deletion;
+     * {@code realm} may be null when only the user id is known.
+     */
+    public void forgetUser(String realm, String userId) {
+        if (enabled && userId != null) store.revoke(userKey(userId), ttlMillis);
+    }
+
+    private boolean reject() {
+        rejected.increment();
+        return false;
+    }
+
+    /** The payload of a well-formed token with a valid signature, else null. */
+    private ByteBuffer verified(String deviceToken) {
+        int dot = deviceToken.indexOf('.');
+        if (dot <= 0) return null;
+        try {
+            byte[] payload = B64URL_DECODER.decode(deviceToken.substring(0, dot));
+            byte[] sig = B64URL_DECODER.decode(deviceToken.substring(dot + 1));
+            if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(sig, sign(payload))) return null;
+            return ByteBuffer.wrap(payload);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        return Arrays.copyOf(Macs.copy(hmac).doFinal(payload), 16);
+    }
+
+    private static String deviceKey(byte[] id) {
+        return "device:" + B64URL.encodeToString(id);
+    }
+
+    private static String userKey(String userId) {
+        return "device-user:" + userId;
+    }
+
+    private static byte[] binding(String realm, String userId, String deviceId) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(realm.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(userId.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            return Arrays.copyOf(sha.digest(deviceId.getBytes(StandardCharsets.UTF_8)), BINDING_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
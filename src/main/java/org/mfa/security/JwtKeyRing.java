@@ -0,0 +1,238 @@
+package org.mfa.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.SignatureAlgorithm;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Asymmetric signing keys for {@code jwt.algorithm=RS256|ES256} (with the default HS256 the ring is
+ * disabled and the shared secret is used).
+ * <p>
+ * Keys come from the keystore at {@code jwt.keystore.path} ({@code jwt.keystore.type}, default
+ * PKCS12; key entries use the store password), typically a secret mounted into every replica, so all
+ * replicas sign and verify with the same keys across restarts. Each key activates at its
+ * certificate's {@code notBefore}; keys whose activation is still ahead are already published in the
+ * JWKS, so rotating means adding a key with a future {@code notBefore} to the keystore. The keystore
+ * is re-read every {@code jwt.keystore.reload-interval-ms}. A superseded key stays published (and
+ * verifiable) for {@code jwt.exp-minutes + jwt.rotation.overlap-minutes}; after that it can be
+ * removed from the keystore.
+ */
+@Slf4j
+@Component
+public class JwtKeyRing {
+
+    public record SigningKey(String kid, KeyPair pair, Instant activatesAt) {}
+
+    private final SignatureAlgorithm algorithm;
+    private final String keystorePath;
+    private final String keystoreType;
+    private final char[] keystorePassword;
+    private final Duration retention;
+    private final ObjectMapper objectMapper;
+
+    /** Newest first. */
+    private volatile List<SigningKey> keys = List.of();
+    private volatile String jwksJson = "{\"keys\":[]}";
+    private volatile String jwksEtag = "\"0\"";
+
+    public JwtKeyRing(@Value("${jwt.algorithm:HS256}") String algorithm,
+                      @Value("${jwt.keystore.path:}") String keystorePath,
+                      @Value("${jwt.keystore.type:PKCS12}") String keystoreType,
+                      @Value("${jwt.keystore.password:}") String keystorePassword,
+                      @Value("${jwt.exp-minutes}") long expMinutes,
+                      @Value("${jwt.rotation.overlap-minutes:5}") long overlapMinutes,
+                      ObjectMapper objectMapper) {
+        this.algorithm = SignatureAlgorithm.forName(algorithm.trim().toUpperCase(Locale.ROOT));
+        if (this.algorithm != SignatureAlgorithm.HS256 && this.algorithm != SignatureAlgorithm.RS256
+                && this.algorithm != SignatureAlgorithm.ES256) {
+            throw new IllegalArgumentException("jwt.algorithm must be HS256, RS256 or ES256");
+        }
+        this.keystorePath = keystorePath.trim();
+        this.keystoreType = keystoreType.trim();
+        this.keystorePassword = keystorePassword.toCharArray();
+        this.retention = Duration.ofMinutes(expMinutes + overlapMinutes);
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() throws IOException, GeneralSecurityException {
+        if (!enabled()) return;
+        if (keystorePath.isEmpty()) {
+            throw new IllegalStateException("jwt.algorithm=" + algorithm.getValue() + " needs jwt.keystore.path");
+        }
+        load();
+        active();
+    }
+
+    @Scheduled(initialDelayString = "${jwt.keystore.reload-interval-ms:60000}",
+            fixedDelayString = "${jwt.keystore.reload-interval-ms:60000}")
+    public void reload() {
+        if (!enabled()) return;
+        String before = keys.isEmpty() ? null : keys.get(0).kid();
+        try {
+            load();
+        } catch (IOException | GeneralSecurityException e) {
+            log.warn("Reloading JWT keystore {} failed, keeping current keys: {}", keystorePath, e.getMessage());
+            return;
+        }
+        SigningKey newest = keys.get(0);
+        if (!newest.kid().equals(before)) {
+            log.info("JWT keystore reloaded; newest kid {} activates at {}", newest.kid(), newest.activatesAt());
+        }
+    }
+
+    public boolean enabled() {
+        return algorithm != SignatureAlgorithm.HS256;
+    }
+
+    public SignatureAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    /** Newest key that has already activated. */
+    public SigningKey active() {
+        Instant now = Instant.now();
+        for (SigningKey k : keys) {
+            if (!k.activatesAt().isAfter(now)) return k;
+        }
+        throw new IllegalStateException("No active JWT signing key");
+    }
+
+    public PublicKey publicKey(String kid) {
+        for (SigningKey k : keys) {
+            if (k.kid().equals(kid)) return k.pair().getPublic();
+        }
+        return null;
+    }
+
+    public String jwksJson() {
+        return jwksJson;
+    }
+
+    public String jwksEtag() {
+        return jwksEtag;
+    }
+
+    private synchronized void load() throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(keystoreType);
+        try (InputStream in = Files.newInputStream(Path.of(keystorePath))) {
+            store.load(in, keystorePassword);
+        }
+        List<SigningKey> loaded = new ArrayList<>();
+        for (String alias : Collections.list(store.aliases())) {
+            if (!store.isKeyEntry(alias)) continue;
+            Key key = store.getKey(alias, keystorePassword);
+            Certificate cert = store.getCertificate(alias);
+            if (!(key instanceof PrivateKey priv) || cert == null || !usable(cert.getPublicKey())) {
+                log.warn("Skipping keystore entry {}: not a {} key pair", alias, algorithm.getValue());
+                continue;
+            }
+            Instant activatesAt = cert instanceof X509Certificate x509 ? x509.getNotBefore().toInstant() : Instant.EPOCH;
+            loaded.add(new SigningKey(kid(cert.getPublicKey()), new KeyPair(cert.getPublicKey(), priv), activatesAt));
+        }
+        if (loaded.isEmpty()) throw new KeyStoreException("No " + algorithm.getValue() + " key entries in " + keystorePath);
+        loaded.sort(Comparator.comparing(SigningKey::activatesAt).reversed());
+
+        // A key is superseded once the next newer key activates; keep it for the retention window after that
+        Instant now = Instant.now();
+        List<SigningKey> next = new ArrayList<>();
+        Instant supersededAt = null;
+        for (SigningKey k : loaded) {
+            if (supersededAt == null || supersededAt.plus(retention).isAfter(now)) next.add(k);
+            supersededAt = k.activatesAt();
+        }
+        keys = List.copyOf(next);
+        publishJwks();
+    }
+
+    /** RSA for RS256; EC on P-256 for ES256, the only curve the JWKS describes. */
+    private boolean usable(PublicKey key) {
+        return algorithm == SignatureAlgorithm.ES256
+                ? key instanceof ECPublicKey ec && ec.getParams().getCurve().getField().getFieldSize() == 256
+                : key instanceof RSAPublicKey;
+    }
+
+    private void publishJwks() {
+        List<Map<String, String>> jwks = new ArrayList<>();
+        for (SigningKey k : keys) {
+            Map<String, String> jwk = new LinkedHashMap<>();
+            jwk.put("kid", k.kid());
+            jwk.put("use", "sig");
+            jwk.put("alg", algorithm.getValue());
+            if (k.pair().getPublic() instanceof RSAPublicKey rsa) {
+                jwk.put("kty", "RSA");
+                jwk.put("n", b64(unsigned(rsa.getModulus())));
+                jwk.put("e", b64(unsigned(rsa.getPublicExponent())));
+            } else if (k.pair().getPublic() instanceof ECPublicKey ec) {
+                jwk.put("kty", "EC");
+                jwk.put("crv", "P-256");
+                jwk.put("x", b64(fixed(ec.getW().getAffineX(), 32)));
+                jwk.put("y", b64(fixed(ec.getW().getAffineY(), 32)));
+            }
+            jwks.add(jwk);
+        }
+        try {
+            String json = objectMapper.writeValueAsString(Map.of("keys", jwks));
+            jwksJson = json;
+            jwksEtag = "\"" + b64(sha256(json.getBytes())).substring(0, 16) + "\"";
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String kid(PublicKey key) {
+        return b64(sha256(key.getEncoded())).substring(0, 16);
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] unsigned(BigInteger v) {
+        byte[] b = v.toByteArray();
+        return b.length > 1 && b[0] == 0 ? Arrays.copyOfRange(b, 1, b.length) : b;
+    }
+
+    private static byte[] fixed(BigInteger v, int len) {
+        byte[] b = unsigned(v);
+        if (b.length == len) return b;
+        byte[] out = new byte[len];
+        System.arraycopy(b, 0, out, len - b.length, b.length);
+        return out;
+    }
+
+    private static String b64(byte[] b) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+    }
+}
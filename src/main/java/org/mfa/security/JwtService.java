@@ -1,7 +1,7 @@
 package org.mfa.security;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
@@ -9,12 +9,15 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.mfa.util.Macs;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
 
 @Service
@@ -28,25 +31,65 @@ public class JwtService {
     @Value("${jwt.exp-minutes}")
     private long expMinutes;
 
+    private final JwtKeyRing keyRing;
+
     private SecretKey key;
 
+    private static final JsonStringEncoder JSON = JsonStringEncoder.getInstance();
+    private static final Base64.Encoder B64URL = Base64.getUrlEncoder().withoutPadding();
+
+    /** Base64url of {@code {"alg":"HS256"}}, the same header jjwt writes. */
+    private static final String HS256_HEADER =
+            B64URL.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8)) + ".";
+
+    /** Keyed once; each token is signed with a copy. */
+    private Mac hmac;
+
     @PostConstruct
     public void initKey() {
         byte[] bytes = secret.startsWith("base64:")
                 ? Decoders.BASE64.decode(secret.substring("base64:".length()))
                 : secret.getBytes(StandardCharsets.UTF_8);
         this.key = Keys.hmacShaKeyFor(bytes);
+        this.hmac = Macs.keyed("HmacSHA256", key);
+    }
+
+    public SecretKey signingKey() {
+        return key;
     }
 
     public String issue(String realm, String userId, String username) {
+        if (keyRing.enabled()) return issueAsymmetric(realm, userId, username);
+
+        // HS256 fast path: pre-encoded header, hand-written claims, cloned pre-keyed Mac
+        long iat = System.currentTimeMillis() / 1000;
+        StringBuilder claims = new StringBuilder(128).append('{');
+        stringClaim(claims, "sub", userId);
+        stringClaim(claims, "realm", realm);
+        stringClaim(claims, "username", username);
+        claims.append("\"iat\":").append(iat).append(",\"exp\":").append(iat + expMinutes * 60).append('}');
+        String signingInput = HS256_HEADER + B64URL.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] sig = Macs.copy(hmac).doFinal(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + B64URL.encodeToString(sig);
+    }
+
+    /** Null values are omitted, as jjwt does. */
+    private static void stringClaim(StringBuilder sb, String name, String value) {
+        if (value == null) return;
+        sb.append('"').append(name).append("\":\"").append(JSON.quoteAsString(value)).append("\",");
+    }
+
+    private String issueAsymmetric(String realm, String userId, String username) {
         Instant now = Instant.now();
+        JwtKeyRing.SigningKey active = keyRing.active();
         return Jwts.builder()
+                .setHeaderParam("kid", active.kid())
                 .setSubject(userId)
                 .claim("realm", realm)
                 .claim("username", username)
                 .setIssuedAt(Date.from(now))
                 .setExpiration(Date.from(now.plusSeconds(expMinutes * 60)))
-                .signWith(key, SignatureAlgorithm.HS256)
+                .signWith(active.pair().getPrivate(), keyRing.algorithm())
                 .compact();
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package org.mfa.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.Key;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies tokens issued by {@link JwtService} with one shared, immutable parser built from the same
+ * key (including the {@code base64:} secret form). With an asymmetric {@link JwtKeyRing} the key is
+ * resolved from the token's {@code kid}; HS256 tokens are then no longer accepted.
+ * <p>
+ * Recently verified tokens are kept in a bounded {@link ConcurrentHashMap} ({@code jwt.verify-cache.size})
+ * keyed by the full compact token, so repeat requests with the same bearer skip the signature check
+ * without taking a lock. Entries are never served past the token's own {@code exp}, nor once their
+ * {@code kid} has left the key ring. When full, expired entries are swept at most once a second;
+ * tokens that still do not fit are verified but not cached.
+ */
+@Component
+public class JwtVerifier {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    private record Verified(Claims claims, String kid, long expiresAt) {}
+
+    private final JwtParser parser;
+    private final JwtKeyRing keyRing;
+    private final Map<String, Verified> recent = new ConcurrentHashMap<>();
+    private final int cacheSize;
+    private final AtomicLong lastSweep = new AtomicLong(-SWEEP_INTERVAL_MILLIS);
+    private final Counter hits;
+    private final Counter misses;
+
+    public JwtVerifier(JwtService jwtService,
+                       JwtKeyRing keyRing,
+                       @Value("${jwt.verify-cache.size:10000}") int cacheSize,
+                       MeterRegistry meters) {
+        this.keyRing = keyRing;
+        this.parser = keyRing.enabled()
+                ? Jwts.parserBuilder().setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    @Override
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        Key key = header.getKeyId() == null ? null : keyRing.publicKey(header.getKeyId());
+                        if (key == null) throw new JwtException("Unknown signing key: " + header.getKeyId());
+                        return key;
+                    }
+                }).build()
+                : Jwts.parserBuilder().setSigningKey(jwtService.signingKey()).build();
+        this.cacheSize = cacheSize;
+        this.hits = Counter.builder("jwt.verify.cache").tag("result", "hit").register(meters);
+        this.misses = Counter.builder("jwt.verify.cache").tag("result", "miss").register(meters);
+    }
+
+    /**
+     * @throws JwtException if the token is malformed, badly signed, expired or its key was retired
+     */
+    public Claims verify(String token) {
+        long now = System.currentTimeMillis();
+        Verified v = recent.get(token);
+        if (v != null) {
+            if (v.expiresAt() > now && (v.kid() == null || keyRing.publicKey(v.kid()) != null)) {
+                hits.increment();
+                return v.claims();
+            }
+            recent.remove(token, v);
+        }
+        misses.increment();
+
+        Jws<Claims> jws = parser.parseClaimsJws(token);
+        Claims claims = jws.getBody();
+        if (claims.getExpiration() != null && hasRoom(now)) {
+            recent.put(token, new Verified(claims, jws.getHeader().getKeyId(), claims.getExpiration().getTime()));
+        }
+        return claims;
+    }
+
+    private boolean hasRoom(long now) {
+        if (recent.size() < cacheSize) return true;
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_MILLIS && lastSweep.compareAndSet(last, now)) {
+            recent.values().removeIf(x -> x.expiresAt() <= now
+                    || (x.kid() != null && keyRing.publicKey(x.kid()) == null));
+        }
+        return recent.size() < cacheSize;
+    }
+}
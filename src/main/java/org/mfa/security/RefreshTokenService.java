@@ -0,0 +1,203 @@
+package org.mfa.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.mfa.dto.FinalTokenResponse;
+import org.mfa.util.Macs;
+import org.mfa.util.PendingMfaStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Rotating refresh tokens. Every successful MFA login starts a family; each refresh consumes the
+ * presented token and hands out a new one in the same family. Presenting an already-consumed token
+ * revokes the whole family (reuse detection).
+ * <p>
+ * Tokens are stateless, like {@link DeviceTrustService}'s: {@code <payload>.<hmac(payload)>}, where
+ * the payload holds the token and family ids, the family's start and end, the token's expiry and the
+ * realm, user id and username to issue access tokens for. The HMAC key is derived from
+ * {@code jwt.secret}, which every replica already shares. A token lives {@code jwt.refresh.ttl-minutes},
+ * a family at most {@code jwt.refresh.max-lifetime-hours}.
+ * <p>
+ * Consumption, reuse, logout and {@link #revokeUser} (password changes, deletions, Keycloak user
+ * events) are recorded in the {@link PendingMfaStore}, so with {@code mfa.store.type=redis} a refresh
+ * may reach any replica and revocations apply to all of them. Consumed markers are kept until the
+ * token's own expiry so reuse can still be detected.
+ */
+@Service
+public class RefreshTokenService {
+
+    public static class RefreshRejectedException extends RuntimeException {
+        private final String code;
+        public RefreshRejectedException(String code) { super(code); this.code = code; }
+        public String getCode() { return code; }
+    }
+
+    /** @param familyStart issue time of the family's first token, compared with {@link #revokeUser} */
+    private record Token(byte[] id, byte[] family, long familyStart, long familyEnd, long expiresAt,
+                         String realm, String userId, String username) {}
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder B64URL = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64URL_DECODER = Base64.getUrlDecoder();
+    private static final int ID_BYTES = 16, SIG_BYTES = 16;
+
+    private final JwtService jwt;
+    private final PendingMfaStore store;
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final long maxLifetimeMillis;
+    private final Mac hmac;
+
+    private final Counter rotated;
+    private final Counter reused;
+
+    public RefreshTokenService(JwtService jwt,
+                               PendingMfaStore store,
+                               @Value("${jwt.refresh.enabled:true}") boolean enabled,
+                               @Value("${jwt.refresh.ttl-minutes:1440}") long ttlMinutes,
+                               @Value("${jwt.refresh.max-lifetime-hours:168}") long maxLifetimeHours,
+                               MeterRegistry meters) {
+        this.jwt = jwt;
+        this.store = store;
+        this.enabled = enabled;
+        this.ttlMillis = Duration.ofMinutes(ttlMinutes).toMillis();
+        this.maxLifetimeMillis = Duration.ofHours(maxLifetimeHours).toMillis();
+        // Own key, so a refresh token can never pass as anything signed with jwt.secret itself
+        this.hmac = enabled
+                ? Macs.keyed("HmacSHA256", new SecretKeySpec(Macs.keyed("HmacSHA256", jwt.signingKey())
+                        .doFinal("refresh-token".getBytes(StandardCharsets.US_ASCII)), "HmacSHA256"))
+                : null;
+        this.rotated = Counter.builder("jwt.refresh.rotated").register(meters);
+        this.reused = Counter.builder("jwt.refresh.reused")
+                .description("Consumed refresh tokens presented again; their family was revoked")
+                .register(meters);
+    }
+
+    /** Access token plus, when enabled, the first refresh token of a new family. */
+    public FinalTokenResponse issue(String realm, String userId, String username) {
+        String access = jwt.issue(realm, userId, username);
+        if (!enabled) return new FinalTokenResponse(access, null, null);
+
+        long now = System.currentTimeMillis();
+        return new FinalTokenResponse(access,
+                newToken(randomId(), now, now + maxLifetimeMillis, realm, userId, username, now), null);
+    }
+
+    /**
+     * Consumes {@code refreshToken} and returns a fresh access/refresh pair without calling Keycloak.
+     *
+     * @throws RefreshRejectedException {@code INVALID_REFRESH_TOKEN} or {@code REFRESH_TOKEN_REUSED}
+     */
+    public FinalTokenResponse refresh(String refreshToken) {
+        if (!enabled || refreshToken == null || refreshToken.isBlank()) {
+            throw new RefreshRejectedException("INVALID_REFRESH_TOKEN");
+        }
+        long now = System.currentTimeMillis();
+        Token t = verified(refreshToken);
+        if (t == null || t.expiresAt() <= now || t.familyEnd() <= now
+                || store.revokedAt(familyKey(t.family())) != 0
+                || store.revokedAt(userKey(t.userId())) >= t.familyStart()) {
+            throw new RefreshRejectedException("INVALID_REFRESH_TOKEN");
+        }
+
+        // Atomic in the store, so two concurrent refreshes with the same token cannot both succeed
+        if (!store.revokeOnce(tokenKey(t.id()), t.expiresAt() - now)) {
+            store.revoke(familyKey(t.family()), t.familyEnd() - now);
+            reused.increment();
+            throw new RefreshRejectedException("REFRESH_TOKEN_REUSED");
+        }
+        rotated.increment();
+        String access = jwt.issue(t.realm(), t.userId(), t.username());
+        return new FinalTokenResponse(access,
+                newToken(t.family(), t.familyStart(), t.familyEnd(), t.realm(), t.userId(), t.username(), now), null);
+    }
+
+    /** Revokes the family of {@code refreshToken} (logout); invalid tokens are ignored. */
+    public void revoke(String refreshToken) {
+        if (!enabled || refreshToken == null) return;
+        Token t = verified(refreshToken);
+        long remaining = t == null ? 0 : t.familyEnd() - System.currentTimeMillis();
+        if (remaining > 0) store.revoke(familyKey(t.family()), remaining);
+    }
+
+    /** Revokes every family the user has started so far, e.g. after a password change or deletion. */
+    public void revokeUser(String userId) {
+        if (enabled && userId != null) store.revoke(userKey(userId), maxLifetimeMillis);
+    }
+
+    private String newToken(byte[] family, long familyStart, long familyEnd,
+                            String realm, String userId, String username, long now) {
+        byte[] r = realm.getBytes(StandardCharsets.UTF_8);
+        byte[] u = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] n = username == null ? new byte[0] : username.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = ByteBuffer.allocate(2 * ID_BYTES + 24 + 6 + r.length + u.length + n.length)
+                .put(randomId())
+                .put(family)
+                .putLong(familyStart)
+                .putLong(familyEnd)
+                .putLong(Math.min(now + ttlMillis, familyEnd))
+                .putShort((short) r.length).put(r)
+                .putShort((short) u.length).put(u)
+                .putShort((short) n.length).put(n)
+                .array();
+        return B64URL.encodeToString(payload) + "." + B64URL.encodeToString(sign(payload));
+    }
+
+    /** The contents of a well-formed token with a valid signature, else null. */
+    private Token verified(String refreshToken) {
+        int dot = refreshToken.indexOf('.');
+        if (dot <= 0) return null;
+        try {
+            byte[] payload = B64URL_DECODER.decode(refreshToken.substring(0, dot));
+            byte[] sig = B64URL_DECODER.decode(refreshToken.substring(dot + 1));
+            if (!MessageDigest.isEqual(sig, sign(payload))) return null;
+            ByteBuffer b = ByteBuffer.wrap(payload);
+            byte[] id = new byte[ID_BYTES], family = new byte[ID_BYTES];
+            b.get(id).get(family);
+            Token t = new Token(id, family, b.getLong(), b.getLong(), b.getLong(), string(b), string(b), string(b));
+            return b.hasRemaining() ? null : t;
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static String string(ByteBuffer b) {
+        byte[] s = new byte[b.getShort() & 0xFFFF];
+        b.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+
+    private byte[] sign(byte[] payload) {
+        return Arrays.copyOf(Macs.copy(hmac).doFinal(payload), SIG_BYTES);
+    }
+
+    private static byte[] randomId() {
+        byte[] id = new byte[ID_BYTES];
+        RANDOM.nextBytes(id);
+        return id;
+    }
+
+    private static String tokenKey(byte[] id) {
+        return "refresh:" + B64URL.encodeToString(id);
+    }
+
+    private static String familyKey(byte[] family) {
+        return "refresh-family:" + B64URL.encodeToString(family);
+    }
+
+    private static String userKey(String userId) {
+        return "refresh-user:" + userId;
+    }
+}
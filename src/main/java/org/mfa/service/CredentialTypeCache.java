@@ -0,0 +1,121 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-(realm, user) cache of which credential types a user has, as a small bitset, so the login
+ * and TOTP endpoints do not fetch {@code users/{id}/credentials} on every request.
+ * <p>
+ * Users with an OTP credential are kept for {@code mfa.credential-cache.ttl-seconds}; users without
+ * one only for {@code mfa.credential-cache.negative-ttl-seconds}, since they are the ones about to
+ * enrol. Changes made elsewhere are picked up through {@link KeycloakEventService}. Failed loads are
+ * not cached. Bounded by {@code mfa.credential-cache.max-size} like {@link UserRepresentationCache}.
+ */
+@Component
+public class CredentialTypeCache {
+
+    public static final int PASSWORD = 1, OTP = 1 << 1, WEBAUTHN = 1 << 2, OTHER = 1 << 7;
+
+    private record Key(String realm, String userId) {}
+    private record Entry(int types, long expiresAt) {}
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxSize;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public CredentialTypeCache(@Value("${mfa.credential-cache.ttl-seconds:300}") long ttlSeconds,
+                               @Value("${mfa.credential-cache.negative-ttl-seconds:5}") long negativeTtlSeconds,
+                               @Value("${mfa.credential-cache.max-size:10000}") int maxSize,
+                               MeterRegistry meters) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.negativeTtlMillis = negativeTtlSeconds * 1000;
+        this.maxSize = maxSize;
+        Gauge.builder("mfa.credential-cache.size", entries, Map::size).register(meters);
+        this.hits = Counter.builder("mfa.credential-cache.requests").tag("result", "hit").register(meters);
+        this.misses = Counter.builder("mfa.credential-cache.requests").tag("result", "miss").register(meters);
+    }
+
+    public static int typesOf(List<CredentialRepresentation> creds) {
+        int types = 0;
+        if (creds == null) return types;
+        for (CredentialRepresentation c : creds) {
+            String type = c.getType() == null ? "" : c.getType().toLowerCase();
+            types |= switch (type) {
+                case "password" -> PASSWORD;
+                case "otp" -> OTP;
+                case "webauthn", "webauthn-passwordless" -> WEBAUTHN;
+                default -> OTHER;
+            };
+        }
+        return types;
+    }
+
+    /** Cached types, or null on a miss. */
+    public Integer cached(String realm, String userId) {
+        Entry e = entries.get(new Key(realm, userId));
+        if (e != null && e.expiresAt() > System.currentTimeMillis()) {
+            hits.increment();
+            return e.types();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Caches the types of freshly loaded credentials and returns them. */
+    public int put(String realm, String userId, List<CredentialRepresentation> creds) {
+        int types = typesOf(creds);
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxSize) {
+            entries.values().removeIf(x -> x.expiresAt() <= now);
+        }
+        if (entries.size() < maxSize) {
+            long ttl = (types & OTP) != 0 ? ttlMillis : negativeTtlMillis;
+            entries.put(new Key(realm, userId), new Entry(types, now + ttl));
+        }
+        return types;
+    }
+
+    /** Cached types, loading and caching them on a miss; a failing load degrades to "none" and is not cached. */
+    public int types(String realm, String userId, Supplier<List<CredentialRepresentation>> loader) {
+        Integer types = cached(realm, userId);
+        return types != null ? types : load(realm, userId, loader);
+    }
+
+    /** Loads and caches the types after {@link #cached} missed, without counting a second lookup. */
+    public int load(String realm, String userId, Supplier<List<CredentialRepresentation>> loader) {
+        List<CredentialRepresentation> creds;
+        try {
+            creds = loader.get();
+        } catch (Exception e) {
+            return 0;
+        }
+        return put(realm, userId, creds);
+    }
+
+    public boolean hasOtp(String realm, String userId, Supplier<List<CredentialRepresentation>> loader) {
+        return (types(realm, userId, loader) & OTP) != 0;
+    }
+
+    public void invalidate(String realm, String userId) {
+        entries.remove(new Key(realm, userId));
+    }
+
+    /** For events that only name the user; ids are unique across realms. */
+    public void invalidateUser(String userId) {
+        entries.keySet().removeIf(k -> k.userId().equals(userId));
+    }
+}
@@ -14,7 +14,7 @@ public class DirectGrantService {
     private final String keycloakBaseUrl;
     private final String clientId;
     private final String clientSecret;
-    private final RestTemplate rest = new RestTemplate();
+    private final RestTemplate rest;
 
     public static record DagResult(boolean ok, String error, String errorDescription) {}
     public DagResult validateCredentialsDetailed(String realm, String username, String password,
@@ -108,11 +108,13 @@ public class DirectGrantService {
     public DirectGrantService(
             @Value("${keycloak.server-url}") String serverUrl,
             @Value("${login.client-id}") String clientId,
-            @Value("${login.client-secret:}") String clientSecret) {
+            @Value("${login.client-secret:}") String clientSecret,
+            RestTemplate keycloakTokenRestTemplate) {
 
         this.keycloakBaseUrl = serverUrl.replaceAll("/+$", "");
         this.clientId = clientId;
         this.clientSecret = clientSecret;
+        this.rest = keycloakTokenRestTemplate;
     }
 
     public boolean validateCredentials(String realm, String username, String password) {
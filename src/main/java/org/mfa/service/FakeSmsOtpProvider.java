@@ -0,0 +1,43 @@
+package org.mfa.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-test stand-in: sends nothing and accepts only {@code sms.fake.code}. An optional
+ * {@code sms.fake.latency-ms} delay mimics the real provider without holding a thread.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "sms.provider", havingValue = "fake")
+public class FakeSmsOtpProvider implements SmsOtpProvider {
+
+    private final String code;
+    private final Executor delay;
+    private final SmsOtpMetrics.Timers metrics;
+
+    public FakeSmsOtpProvider(@Value("${sms.fake.code:000000}") String code,
+                              @Value("${sms.fake.latency-ms:0}") long latencyMs,
+                              SmsOtpMetrics metrics) {
+        this.code = code;
+        this.delay = CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS);
+        this.metrics = metrics.forProvider("fake");
+        log.warn("sms.provider=fake: no SMS is sent and code {} is accepted for every number", code);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(String toE164) {
+        return metrics.send(() -> CompletableFuture.runAsync(() -> {}, delay));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> check(String toE164, String code) {
+        return metrics.check(() -> CompletableFuture.supplyAsync(() -> this.code.equals(code), delay));
+    }
+}
@@ -0,0 +1,147 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+import org.keycloak.representations.idm.EventRepresentation;
+import org.mfa.security.DeviceTrustService;
+import org.mfa.security.RefreshTokenService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns Keycloak user and admin events into cache invalidations ({@link CredentialTypeCache},
+ * {@link TotpVerifier}, {@link UserRepresentationCache}), so enrolment changes are seen within
+ * seconds while the caches keep long TTLs. The user's refresh tokens and remembered devices are revoked as well.
+ * <p>
+ * Events arrive either pushed by an event-listener webhook ({@code POST /internal/keycloak/events})
+ * or pulled by {@link #poll}, which reads the realms in {@code mfa.credential-cache.poll.realms}
+ * (empty = off) in ascending time order from where the previous poll stopped. Polling needs
+ * events (credential types) and admin events to be enabled on those realms.
+ */
+@Slf4j
+@Service
+public class KeycloakEventService {
+
+    /** User events that add, change or remove a credential. */
+    private static final List<String> CREDENTIAL_EVENTS = List.of(
+            "UPDATE_TOTP", "REMOVE_TOTP", "UPDATE_CREDENTIAL", "REMOVE_CREDENTIAL", "UPDATE_PASSWORD");
+
+    private final Keycloak keycloak;
+    private final RealmDirectory realms;
+    private final CredentialTypeCache credentialTypes;
+    private final TotpVerifier totp;
+    private final UserRepresentationCache userCache;
+    private final RefreshTokenService refreshTokens;
+    private final DeviceTrustService deviceTrust;
+    private final List<String> pollRealms;
+    private final int batch;
+
+    /** Per realm: time of the newest user event / admin event already applied. */
+    private final Map<String, Long> userEventsSeen = new ConcurrentHashMap<>();
+    private final Map<String, Long> adminEventsSeen = new ConcurrentHashMap<>();
+    private final long startedAt = System.currentTimeMillis();
+
+    private final Counter invalidations;
+    private final Counter pollFailures;
+
+    public KeycloakEventService(Keycloak keycloak,
+                                RealmDirectory realms,
+                                CredentialTypeCache credentialTypes,
+                                TotpVerifier totp,
+                                UserRepresentationCache userCache,
+                                RefreshTokenService refreshTokens,
+                                DeviceTrustService deviceTrust,
+                                @Value("${mfa.credential-cache.poll.realms:}") String pollRealms,
+                                @Value("${mfa.credential-cache.poll.batch:200}") int batch,
+                                MeterRegistry meters) {
+        this.keycloak = keycloak;
+        this.realms = realms;
+        this.credentialTypes = credentialTypes;
+        this.totp = totp;
+        this.userCache = userCache;
+        this.refreshTokens = refreshTokens;
+        this.deviceTrust = deviceTrust;
+        this.pollRealms = Arrays.stream(pollRealms.split(",")).map(String::trim).filter(r -> !r.isEmpty()).toList();
+        this.batch = batch;
+        this.invalidations = Counter.builder("mfa.credential-cache.invalidations").register(meters);
+        this.pollFailures = Counter.builder("mfa.credential-cache.poll.failures").register(meters);
+    }
+
+    /** Drops everything cached about the user; {@code realm} may be null when only the user id is known. */
+    public void userChanged(String realm, String userId) {
+        if (userId == null || userId.isBlank()) return;
+        invalidations.increment();
+        refreshTokens.revokeUser(userId);
+        deviceTrust.forgetUser(realm, userId);
+        if (realm == null) {
+            credentialTypes.invalidateUser(userId);
+            totp.invalidateUser(userId);
+            userCache.invalidateUser(userId);
+            return;
+        }
+        credentialTypes.invalidate(realm, userId);
+        totp.invalidate(realm, userId);
+        userCache.invalidate(realm, userId);
+    }
+
+    /**
+     * Applies one pushed event. Webhook payloads carry the realm id rather than its name;
+     * admin events name the user only through the resource path ({@code users/{id}/...}).
+     */
+    public void onEvent(String realmId, String userId, String resourcePath) {
+        String user = userId != null ? userId : userIdOf(resourcePath);
+        String realm = realmId == null ? null : realms.realmName(realmId).orElse(null);
+        userChanged(realm, user);
+    }
+
+    @Scheduled(fixedDelayString = "${mfa.credential-cache.poll.interval-ms:5000}")
+    public void poll() {
+        for (String realm : pollRealms) {
+            try {
+                pollRealm(realm);
+            } catch (Exception e) {
+                pollFailures.increment();
+                log.warn("Polling Keycloak events for realm {} failed: {}", realm, e.getMessage());
+            }
+        }
+    }
+
+    private void pollRealm(String realm) {
+        RealmResource rr = keycloak.realm(realm);
+        long to = System.currentTimeMillis() + 60_000;
+
+        // dateFrom is inclusive, so the newest event of the last batch comes back once; invalidating twice is harmless
+        long from = userEventsSeen.getOrDefault(realm, startedAt);
+        List<EventRepresentation> events = rr.getEvents(CREDENTIAL_EVENTS, null, null, from, to, null, 0, batch, "asc");
+        for (EventRepresentation e : events) {
+            userChanged(realm, e.getUserId());
+            from = Math.max(from, e.getTime());
+        }
+        userEventsSeen.put(realm, from);
+
+        from = adminEventsSeen.getOrDefault(realm, startedAt);
+        List<AdminEventRepresentation> adminEvents = rr.getAdminEvents(
+                null, null, null, null, null, null, List.of("USER"), from, to, 0, batch, "asc");
+        for (AdminEventRepresentation e : adminEvents) {
+            userChanged(realm, userIdOf(e.getResourcePath()));
+            from = Math.max(from, e.getTime());
+        }
+        adminEventsSeen.put(realm, from);
+    }
+
+    static String userIdOf(String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith("users/")) return null;
+        int end = resourcePath.indexOf('/', "users/".length());
+        return end < 0 ? resourcePath.substring("users/".length()) : resourcePath.substring("users/".length(), end);
+    }
+}
@@ -0,0 +1,125 @@
+package org.mfa.service;
+
+import com.twilio.exception.ApiConnectionException;
+import com.twilio.http.TwilioRestClient;
+import com.twilio.rest.api.v2010.account.Message;
+import com.twilio.type.PhoneNumber;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Codes are generated and checked in this process and delivered as plain Twilio messages from
+ * {@code sms.local.from}, which is cheaper than Verify. Only a SHA-256 of the code is kept, for
+ * {@code sms.local.ttl-seconds}, with at most {@code sms.local.max-attempts} wrong guesses.
+ * State is per instance, so send and check must reach the same node.
+ */
+@Service
+@ConditionalOnProperty(name = "sms.provider", havingValue = "local")
+public class LocalSmsOtpProvider implements SmsOtpProvider {
+
+    private static final class Pending {
+        final byte[] codeHash;
+        final long expiresAt;
+        int failures;
+
+        Pending(byte[] codeHash, long expiresAt) {
+            this.codeHash = codeHash;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final TwilioRestClient client;
+    private final PhoneNumber from;
+    private final String template;
+    private final long ttlMillis;
+    private final int maxAttempts;
+    private final int retries;
+    private final ExecutorService executor;
+    private final SmsOtpMetrics.Timers metrics;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    public LocalSmsOtpProvider(TwilioRestClient client,
+                               @Value("${sms.local.from}") String from,
+                               @Value("${sms.local.template:Your verification code is %s}") String template,
+                               @Value("${sms.local.ttl-seconds:300}") long ttlSeconds,
+                               @Value("${sms.local.max-attempts:5}") int maxAttempts,
+                               @Value("${sms.twilio.retries:1}") int retries,
+                               @Qualifier("smsExecutor") ExecutorService smsExecutor,
+                               SmsOtpMetrics metrics) {
+        this.client = client;
+        this.from = new PhoneNumber(from);
+        this.template = template;
+        this.ttlMillis = Duration.ofSeconds(ttlSeconds).toMillis();
+        this.maxAttempts = maxAttempts;
+        this.retries = retries;
+        this.executor = smsExecutor;
+        this.metrics = metrics.forProvider("local");
+    }
+
+    @Override
+    public CompletableFuture<Void> send(String toE164) {
+        String code = String.format("%06d", RANDOM.nextInt(1_000_000));
+        pending.put(toE164, new Pending(sha256(code), System.currentTimeMillis() + ttlMillis));
+        return metrics.send(() -> CompletableFuture.runAsync(() -> {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    Message.creator(new PhoneNumber(toE164), from, String.format(template, code)).create(client);
+                    return;
+                } catch (ApiConnectionException e) {
+                    if (attempt >= retries) throw e;
+                }
+            }
+        }, executor));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> check(String toE164, String code) {
+        return metrics.check(() -> CompletableFuture.completedFuture(verify(toE164, code)));
+    }
+
+    private boolean verify(String toE164, String code) {
+        Pending p = pending.get(toE164);
+        if (p == null || code == null) return false;
+        synchronized (p) {
+            if (p.expiresAt <= System.currentTimeMillis() || p.failures >= maxAttempts) {
+                pending.remove(toE164, p);
+                return false;
+            }
+            if (MessageDigest.isEqual(p.codeHash, sha256(code))) {
+                pending.remove(toE164, p);
+                return true;
+            }
+            p.failures++;
+            return false;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${sms.local.sweep-interval-ms:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        pending.values().removeIf(p -> p.expiresAt <= now);
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
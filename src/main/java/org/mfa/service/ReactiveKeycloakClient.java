@@ -0,0 +1,118 @@
+package org.mfa.service;
+
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mfa.config.AdminAccessToken;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking Keycloak calls for the reactive login pipeline: password/TOTP grants against the
+ * token endpoint and the few admin REST reads the login flow needs.
+ * The admin access token comes from {@link AdminAccessToken}, which caches and renews it; a cached
+ * token is used in place, and only the (rare) renewal, which blocks, runs on the bounded-elastic scheduler.
+ */
+@Service
+public class ReactiveKeycloakClient {
+
+    private static final ParameterizedTypeReference<List<UserRepresentation>> USERS = new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<List<CredentialRepresentation>> CREDS = new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Map<String, Object>> ERROR = new ParameterizedTypeReference<>() {};
+
+    private final WebClient web;
+    private final AdminAccessToken adminToken;
+    private final String clientId;
+    private final String clientSecret;
+
+    public ReactiveKeycloakClient(WebClient keycloakWebClient,
+                                  AdminAccessToken adminToken,
+                                  @Value("${login.client-id}") String clientId,
+                                  @Value("${login.client-secret:}") String clientSecret) {
+        this.web = keycloakWebClient;
+        this.adminToken = adminToken;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+    }
+
+    /** Same semantics as {@link DirectGrantService#validateCredentialsDetailed}: 4xx maps to a failed result, 5xx errors. */
+    public Mono<DirectGrantService.DagResult> passwordGrant(String realm, String username, String password, String totp,
+                                                           String overrideClientId, String overrideClientSecret) {
+        String cid = (overrideClientId != null && !overrideClientId.isBlank()) ? overrideClientId : clientId;
+        String csec = (overrideClientSecret != null) ? overrideClientSecret : clientSecret;
+
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "password");
+        form.add("client_id", cid);
+        if (csec != null && !csec.isBlank()) form.add("client_secret", csec);
+        form.add("username", username);
+        form.add("password", password);
+        if (totp != null && !totp.isBlank()) form.add("totp", totp);
+
+        return web.post()
+                .uri("/realms/{realm}/protocol/openid-connect/token", realm)
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData(form))
+                .exchangeToMono(resp -> {
+                    if (resp.statusCode().is2xxSuccessful()) {
+                        return resp.releaseBody().thenReturn(new DirectGrantService.DagResult(true, null, null));
+                    }
+                    if (resp.statusCode().is4xxClientError()) {
+                        return resp.bodyToMono(ERROR)
+                                .onErrorReturn(Map.of())
+                                .defaultIfEmpty(Map.of())
+                                .map(m -> new DirectGrantService.DagResult(false,
+                                        (String) m.get("error"), (String) m.get("error_description")));
+                    }
+                    return resp.createException().flatMap(Mono::error);
+                });
+    }
+
+    public Mono<List<UserRepresentation>> searchExact(String realm, String username) {
+        return adminToken().flatMap(token -> web.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users")
+                        .queryParam("username", "{username}")
+                        .queryParam("exact", true)
+                        .build(realm, username))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .retrieve()
+                .bodyToMono(USERS));
+    }
+
+    public Mono<UserRepresentation> user(String realm, String userId) {
+        return adminToken().flatMap(token -> web.get()
+                .uri("/admin/realms/{realm}/users/{id}", realm, userId)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .retrieve()
+                .bodyToMono(UserRepresentation.class));
+    }
+
+    /** Errors are propagated, so callers can tell a failed load from a user without credentials. */
+    public Mono<List<CredentialRepresentation>> credentials(String realm, String userId) {
+        return adminToken().flatMap(token -> web.get()
+                .uri("/admin/realms/{realm}/users/{id}/credentials", realm, userId)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .retrieve()
+                .bodyToMono(CREDS));
+    }
+
+    /** The cached token without a thread hop; only a renewal, which blocks, moves to boundedElastic. */
+    private Mono<String> adminToken() {
+        return Mono.defer(() -> {
+            String cached = adminToken.cached();
+            if (cached != null) return Mono.just(cached);
+            return Mono.fromCallable(adminToken::get).subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import lombok.extern.slf4j.Slf4j;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cached realm id → realm index (user group id → realm name).
+ * <p>
+ * Loaded from {@code GET /admin/realms?briefRepresentation=true} (id, name, display name only)
+ * instead of downloading every full realm. Entries older than {@code realm.cache.refresh-ahead-seconds}
+ * trigger a background reload while the current index keeps serving; past
+ * {@code realm.cache.ttl-seconds} the caller reloads synchronously. An unknown id forces one reload
+ * (the realm may have been created on another node). Local writes call {@link #invalidate()}.
+ * Reloads are single-flight: callers arriving while one is running wait for it and share its result.
+ */
+@Slf4j
+@Service
+public class RealmDirectory {
+
+    @Path("/admin/realms")
+    public interface BriefRealms {
+        @GET
+        @Produces(MediaType.APPLICATION_JSON)
+        List<RealmRepresentation> findAll(@QueryParam("briefRepresentation") boolean brief);
+    }
+
+    private record Index(Map<String, RealmRepresentation> byId, long loadedAt) {}
+
+    private static final long MIN_MISS_RELOAD_INTERVAL_MS = 1000;
+
+    private final BriefRealms realms;
+    private final ExecutorService executor;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile Index index;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter reloads;
+
+    public RealmDirectory(Keycloak keycloak,
+                          @Value("${keycloak.server-url}") String serverUrl,
+                          @Qualifier("keycloakExecutor") ExecutorService executor,
+                          @Value("${realm.cache.ttl-seconds:300}") long ttlSeconds,
+                          @Value("${realm.cache.refresh-ahead-seconds:240}") long refreshAheadSeconds,
+                          MeterRegistry meters) {
+        this.realms = keycloak.proxy(BriefRealms.class, URI.create(serverUrl.replaceAll("/+$", "")));
+        this.executor = executor;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.refreshAheadMillis = Math.min(refreshAheadSeconds, ttlSeconds) * 1000;
+        this.hits = Counter.builder("realm.cache.requests").tag("result", "hit").register(meters);
+        this.misses = Counter.builder("realm.cache.requests").tag("result", "miss").register(meters);
+        this.reloads = Counter.builder("realm.cache.reloads").register(meters);
+    }
+
+    public Optional<RealmRepresentation> find(String realmId) {
+        if (realmId == null) return Optional.empty();
+        String key = realmId.toLowerCase(Locale.ROOT);
+
+        Index idx = current();
+        RealmRepresentation r = idx.byId().get(key);
+        if (r == null && System.currentTimeMillis() - idx.loadedAt() > MIN_MISS_RELOAD_INTERVAL_MS) {
+            r = reload().byId().get(key);
+        }
+        (r != null ? hits : misses).increment();
+        return Optional.ofNullable(r);
+    }
+
+    public Optional<String> realmName(String realmId) {
+        return find(realmId).map(RealmRepresentation::getRealm);
+    }
+
+    public List<RealmRepresentation> all() {
+        return List.copyOf(current().byId().values());
+    }
+
+    public void invalidate() {
+        index = null;
+    }
+
+    private Index current() {
+        Index idx = index;
+        if (idx == null) return reload();
+
+        long age = System.currentTimeMillis() - idx.loadedAt();
+        if (age > ttlMillis) return reload();
+        if (age > refreshAheadMillis && refreshing.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    log.warn("Background realm index refresh failed: {}", e.getMessage());
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return idx;
+    }
+
+    /** A fresh index, or the one a concurrent reload finished after this call started. */
+    private Index reload() {
+        long requestedAt = System.currentTimeMillis();
+        reloadLock.lock();
+        try {
+            Index idx = index;
+            if (idx != null && idx.loadedAt() >= requestedAt) return idx;
+
+            Map<String, RealmRepresentation> byId = new LinkedHashMap<>();
+            for (RealmRepresentation r : realms.findAll(true)) {
+                byId.put(r.getId().toLowerCase(Locale.ROOT), r);
+            }
+            idx = new Index(Collections.unmodifiableMap(byId), System.currentTimeMillis());
+            index = idx;
+            reloads.increment();
+            return idx;
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-provider latency histograms for {@link SmsOtpProvider} calls. Each provider registers its
+ * op/outcome timers once ({@link #forProvider}), so recording a call is a plain {@link Timer#record}.
+ */
+@Component
+public class SmsOtpMetrics {
+
+    /** The send/check × ok/error timers of one provider. */
+    public static final class Timers {
+        private final Timer sendOk, sendError, checkOk, checkError;
+
+        private Timers(MeterRegistry meters, String provider) {
+            this.sendOk = timer(meters, provider, "send", "ok");
+            this.sendError = timer(meters, provider, "send", "error");
+            this.checkOk = timer(meters, provider, "check", "ok");
+            this.checkError = timer(meters, provider, "check", "error");
+        }
+
+        public <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> call) {
+            return time(sendOk, sendError, call);
+        }
+
+        public <T> CompletableFuture<T> check(Supplier<CompletableFuture<T>> call) {
+            return time(checkOk, checkError, call);
+        }
+
+        private static <T> CompletableFuture<T> time(Timer ok, Timer error, Supplier<CompletableFuture<T>> call) {
+            long start = System.nanoTime();
+            return call.get().whenComplete((r, e) ->
+                    (e == null ? ok : error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        }
+
+        private static Timer timer(MeterRegistry meters, String provider, String op, String outcome) {
+            return Timer.builder("sms.otp.latency")
+                    .tag("provider", provider)
+                    .tag("op", op)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meters);
+        }
+    }
+
+    private final MeterRegistry meters;
+
+    public SmsOtpMetrics(MeterRegistry meters) {
+        this.meters = meters;
+    }
+
+    public Timers forProvider(String provider) {
+        return new Timers(meters, provider);
+    }
+}
@@ -0,0 +1,22 @@
+package org.mfa.service;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends and checks SMS one-time codes. Selected with {@code sms.provider}:
+ * {@code twilio-verify} (default), {@code local} (codes generated and checked here, delivered as
+ * plain Twilio messages) or {@code fake} (no network, for load tests).
+ * Calls never block the caller; latency is recorded as {@code sms.otp.latency}.
+ */
+public interface SmsOtpProvider {
+
+    CompletableFuture<Void> send(String toE164);
+
+    /** Completes with {@code true} only for a valid, unexpired code; a code can be used once. */
+    CompletableFuture<Boolean> check(String toE164, String code);
+
+    default CompletableFuture<Void> sendAll(Collection<String> recipients) {
+        return CompletableFuture.allOf(recipients.stream().map(this::send).toArray(CompletableFuture[]::new));
+    }
+}
@@ -0,0 +1,260 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.representations.userprofile.config.UPAttribute;
+import org.keycloak.representations.userprofile.config.UPAttributePermissions;
+import org.keycloak.representations.userprofile.config.UPConfig;
+import org.mfa.util.Macs;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process RFC 6238 TOTP check ({@code mfa.totp.verifier=local}), used instead of a second
+ * password grant against Keycloak.
+ * <p>
+ * Keycloak's admin API never returns OTP secrets, so the secret is read from the user attribute
+ * {@code mfa.totp.secret-attribute} (base32, as in an otpauth URI), provisioned by an administrator;
+ * this service never writes it. That attribute must not be user-editable, or anyone with the password
+ * could set their own second factor through the account API. A realm's secrets are therefore only
+ * used when its user profile declares the attribute without any {@code user} view/edit permission, or
+ * leaves it unmanaged with policy {@code ADMIN_EDIT} or {@code ADMIN_VIEW}; the profile is re-read
+ * every {@code mfa.totp.secret-cache-seconds}. Note that admin accounts with {@code view-users} can
+ * still read the secret in plain text. A local secret is also ignored unless the user still has an
+ * {@code otp} credential in Keycloak ({@link CredentialTypeCache}), so removing the authenticator in
+ * Keycloak disables it here too.
+ * <p>
+ * In all those cases, and for users without the attribute, {@link Result#NO_SECRET} is returned and
+ * the caller falls back to the Keycloak grant. Per user, the keyed
+ * {@link Mac} is built once and cached for {@code mfa.totp.secret-cache-seconds}; verifications
+ * clone it. Accepted codes must be for a later time step than the last one accepted for that user,
+ * which rejects replays inside the {@code mfa.totp.skew-steps} window.
+ */
+@Slf4j
+@Service
+public class TotpVerifier {
+
+    public enum Result { VALID, INVALID, REPLAYED, NO_SECRET }
+
+    private record CachedKey(Mac prototype, long loadedAt) {}
+    private record RealmPolicy(boolean secretProtected, long loadedAt) {}
+
+    private static final int[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+
+    private final Keycloak keycloak;
+    private final CredentialTypeCache credentialTypes;
+    private final boolean enabled;
+    private final String secretAttribute;
+    private final String algorithm;
+    private final int digits;
+    private final long periodSeconds;
+    private final int skewSteps;
+    private final long cacheMillis;
+
+    /** realm/userId -> keyed Mac prototype, or a null prototype when the user has no local secret. */
+    private final Map<String, CachedKey> keys = new ConcurrentHashMap<>();
+    /** realm -> whether its user profile keeps the secret attribute away from users. */
+    private final Map<String, RealmPolicy> realms = new ConcurrentHashMap<>();
+    /** realm/userId -> last accepted time step. */
+    private final Map<String, Long> lastStep = new ConcurrentHashMap<>();
+
+    private final Counter valid;
+    private final Counter invalid;
+    private final Counter replayed;
+
+    public TotpVerifier(Keycloak keycloak,
+                        CredentialTypeCache credentialTypes,
+                        @Value("${mfa.totp.verifier:keycloak}") String verifier,
+                        @Value("${mfa.totp.secret-attribute:totp_secret}") String secretAttribute,
+                        @Value("${mfa.totp.algorithm:HmacSHA1}") String algorithm,
+                        @Value("${mfa.totp.digits:6}") int digits,
+                        @Value("${mfa.totp.period-seconds:30}") long periodSeconds,
+                        @Value("${mfa.totp.skew-steps:1}") int skewSteps,
+                        @Value("${mfa.totp.secret-cache-seconds:300}") long cacheSeconds,
+                        MeterRegistry meters) {
+        if (digits < 6 || digits > 8) throw new IllegalArgumentException("mfa.totp.digits must be 6..8");
+        this.keycloak = keycloak;
+        this.credentialTypes = credentialTypes;
+        this.enabled = "local".equalsIgnoreCase(verifier.trim());
+        this.secretAttribute = secretAttribute;
+        this.algorithm = algorithm;
+        this.digits = digits;
+        this.periodSeconds = periodSeconds;
+        this.skewSteps = skewSteps;
+        this.cacheMillis = cacheSeconds * 1000;
+        this.valid = Counter.builder("mfa.totp.local").tag("result", "valid").register(meters);
+        this.invalid = Counter.builder("mfa.totp.local").tag("result", "invalid").register(meters);
+        this.replayed = Counter.builder("mfa.totp.local").tag("result", "replayed").register(meters);
+    }
+
+    /** May call Keycloak once per cache period to load the realm's user profile and the user's secret. */
+    public Result verify(String realm, String userId, String code) {
+        if (!enabled || !secretProtected(realm)) return Result.NO_SECRET;
+        String user = realm + "/" + userId;
+        Mac prototype = key(realm, userId, user);
+        if (prototype == null) return Result.NO_SECRET;
+        if (!credentialTypes.hasOtp(realm, userId,
+                () -> keycloak.realms().realm(realm).users().get(userId).credentials())) {
+            return Result.NO_SECRET;
+        }
+
+        if (code == null || code.length() != digits) {
+            invalid.increment();
+            return Result.INVALID;
+        }
+        byte[] given = code.getBytes(StandardCharsets.US_ASCII);
+        long now = System.currentTimeMillis() / 1000 / periodSeconds;
+        Mac mac = Macs.copy(prototype);
+        long matched = -1;
+        // Check the whole window without an early exit so timing does not reveal which step matched
+        for (long step = now - skewSteps; step <= now + skewSteps; step++) {
+            if (MessageDigest.isEqual(given, codeAt(mac, step)) && matched < 0) matched = step;
+        }
+        if (matched < 0) {
+            invalid.increment();
+            return Result.INVALID;
+        }
+
+        long accepted = matched;
+        boolean[] fresh = {false};
+        lastStep.compute(user, (k, prev) -> {
+            if (prev != null && prev >= accepted) return prev;
+            fresh[0] = true;
+            return accepted;
+        });
+        if (!fresh[0]) {
+            replayed.increment();
+            return Result.REPLAYED;
+        }
+        valid.increment();
+        return Result.VALID;
+    }
+
+    public void invalidate(String realm, String userId) {
+        keys.remove(realm + "/" + userId);
+    }
+
+    /** For events that only name the user; ids are unique across realms. */
+    public void invalidateUser(String userId) {
+        String suffix = "/" + userId;
+        keys.keySet().removeIf(k -> k.endsWith(suffix));
+    }
+
+    @Scheduled(fixedDelayString = "${mfa.totp.sweep-interval-ms:60000}")
+    public void sweep() {
+        long nowMillis = System.currentTimeMillis();
+        long oldestLive = nowMillis / 1000 / periodSeconds - skewSteps;
+        lastStep.values().removeIf(step -> step < oldestLive);
+        keys.values().removeIf(k -> nowMillis - k.loadedAt() > cacheMillis);
+        realms.values().removeIf(r -> nowMillis - r.loadedAt() > cacheMillis);
+    }
+
+    private boolean secretProtected(String realm) {
+        long now = System.currentTimeMillis();
+        RealmPolicy cached = realms.get(realm);
+        if (cached == null || now - cached.loadedAt() > cacheMillis) {
+            cached = new RealmPolicy(loadPolicy(realm), now);
+            realms.put(realm, cached);
+        }
+        return cached.secretProtected();
+    }
+
+    private boolean loadPolicy(String realm) {
+        UPConfig profile;
+        try {
+            profile = keycloak.realms().realm(realm).users().userProfile().getConfiguration();
+        } catch (RuntimeException e) {
+            log.warn("Cannot read the user profile of realm {}, not using local TOTP secrets: {}", realm, e.getMessage());
+            return false;
+        }
+        UPAttribute attribute = profile.getAttributes() == null ? null : profile.getAttribute(secretAttribute);
+        boolean adminOnly;
+        if (attribute == null) {
+            UPConfig.UnmanagedAttributePolicy policy = profile.getUnmanagedAttributePolicy();
+            adminOnly = policy == UPConfig.UnmanagedAttributePolicy.ADMIN_EDIT
+                    || policy == UPConfig.UnmanagedAttributePolicy.ADMIN_VIEW;
+        } else {
+            UPAttributePermissions p = attribute.getPermissions();
+            adminOnly = p != null && !forUsers(p.getView()) && !forUsers(p.getEdit());
+        }
+        if (!adminOnly) {
+            log.warn("Attribute {} is visible to or editable by users in realm {}; not using local TOTP secrets",
+                    secretAttribute, realm);
+        }
+        return adminOnly;
+    }
+
+    private static boolean forUsers(Set<String> roles) {
+        return roles != null && roles.contains("user");
+    }
+
+    private Mac key(String realm, String userId, String user) {
+        long now = System.currentTimeMillis();
+        CachedKey cached = keys.get(user);
+        if (cached == null || now - cached.loadedAt() > cacheMillis) {
+            cached = new CachedKey(loadKey(realm, userId), now);
+            keys.put(user, cached);
+        }
+        return cached.prototype();
+    }
+
+    private Mac loadKey(String realm, String userId) {
+        UserRepresentation rep = keycloak.realms().realm(realm).users().get(userId).toRepresentation();
+        Map<String, List<String>> attrs = rep.getAttributes();
+        List<String> values = attrs == null ? null : attrs.get(secretAttribute);
+        if (values == null || values.isEmpty() || values.get(0).isBlank()) return null;
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(base32(values.get(0)), algorithm));
+            return mac;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            log.warn("Unusable TOTP secret for user {} in realm {}: {}", userId, realm, e.getMessage());
+            return null;
+        }
+    }
+
+    /** RFC 4226 dynamic truncation, zero-padded to {@code digits}. */
+    byte[] codeAt(Mac mac, long step) {
+        byte[] counter = new byte[8];
+        for (int i = 7; i >= 0; i--, step >>>= 8) counter[i] = (byte) step;
+        byte[] h = mac.doFinal(counter);
+        int off = h[h.length - 1] & 0x0f;
+        int bin = ((h[off] & 0x7f) << 24) | ((h[off + 1] & 0xff) << 16) | ((h[off + 2] & 0xff) << 8) | (h[off + 3] & 0xff);
+        int otp = bin % POW10[digits];
+        byte[] out = new byte[digits];
+        for (int i = digits - 1; i >= 0; i--, otp /= 10) out[i] = (byte) ('0' + otp % 10);
+        return out;
+    }
+
+    static byte[] base32(String s) {
+        String in = s.replace(" ", "").replace("=", "").toUpperCase(Locale.ROOT);
+        byte[] out = new byte[in.length() * 5 / 8];
+        int buffer = 0, bits = 0, n = 0;
+        for (char c : in.toCharArray()) {
+            int v = c >= 'A' && c <= 'Z' ? c - 'A' : c >= '2' && c <= '7' ? c - '2' + 26 : -1;
+            if (v < 0) throw new IllegalArgumentException("invalid base32 character");
+            buffer = (buffer << 5) | v;
+            bits += 5;
+            if (bits >= 8) {
+                out[n++] = (byte) (buffer >>> (bits - 8));
+                bits -= 8;
+            }
+        }
+        return out;
+    }
+}
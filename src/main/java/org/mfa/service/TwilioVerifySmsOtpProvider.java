@@ -0,0 +1,66 @@
+package org.mfa.service;
+
+import com.twilio.exception.ApiConnectionException;
+import com.twilio.http.TwilioRestClient;
+import com.twilio.rest.verify.v2.service.Verification;
+import com.twilio.rest.verify.v2.service.VerificationCheck;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Twilio Verify: Twilio generates, delivers and checks the code. Sends that fail to connect are
+ * retried {@code sms.twilio.retries} times; checks are never retried since Twilio may already have
+ * consumed the code.
+ */
+@Service
+@ConditionalOnProperty(name = "sms.provider", havingValue = "twilio-verify", matchIfMissing = true)
+public class TwilioVerifySmsOtpProvider implements SmsOtpProvider {
+
+    private final TwilioRestClient client;
+    private final String verifyServiceSid;
+    private final int retries;
+    private final ExecutorService executor;
+    private final SmsOtpMetrics.Timers metrics;
+
+    public TwilioVerifySmsOtpProvider(TwilioRestClient client,
+                                      @Value("${twilio.verify.service-sid}") String verifyServiceSid,
+                                      @Value("${sms.twilio.retries:1}") int retries,
+                                      @Qualifier("smsExecutor") ExecutorService smsExecutor,
+                                      SmsOtpMetrics metrics) {
+        this.client = client;
+        this.verifyServiceSid = verifyServiceSid;
+        this.retries = retries;
+        this.executor = smsExecutor;
+        this.metrics = metrics.forProvider("twilio-verify");
+    }
+
+    @Override
+    public CompletableFuture<Void> send(String toE164) {
+        return metrics.send(() -> CompletableFuture.runAsync(() -> {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    Verification.creator(verifyServiceSid, toE164, "sms").create(client);
+                    return;
+                } catch (ApiConnectionException e) {
+                    if (attempt >= retries) throw e;
+                }
+            }
+        }, executor));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> check(String toE164, String code) {
+        return metrics.check(() -> CompletableFuture.supplyAsync(() -> {
+            var check = VerificationCheck.creator(verifyServiceSid)
+                    .setTo(toE164)
+                    .setCode(code)
+                    .create(client);
+            return "approved".equalsIgnoreCase(check.getStatus());
+        }, executor));
+    }
+}
@@ -0,0 +1,113 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.ws.rs.NotFoundException;
+import org.mfa.dto.BatchItemResultApiV1;
+import org.mfa.dto.UserApiV1;
+import org.mfa.util.TenantRateLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Batch PATCH/DELETE of users in one realm. The realm is resolved once by the caller; items fan
+ * out on the bulk executor with at most {@code batch.concurrency} in flight per request and are
+ * paced per realm by {@link TenantRateLimiter}. Results are written as NDJSON as items complete, so
+ * their order is completion order, not request order; each carries its item's id.
+ */
+@Service
+public class UserBatchService {
+
+    private final UserService userService;
+    private final TenantRateLimiter rateLimiter;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper;
+    private final int concurrency;
+    private final MeterRegistry meters;
+
+    public UserBatchService(UserService userService,
+                            TenantRateLimiter rateLimiter,
+                            @Qualifier("bulkExecutor") ExecutorService executor,
+                            ObjectMapper objectMapper,
+                            @Value("${batch.concurrency:8}") int concurrency,
+                            MeterRegistry meters) {
+        this.userService = userService;
+        this.rateLimiter = rateLimiter;
+        this.executor = executor;
+        this.objectMapper = objectMapper;
+        this.concurrency = Math.max(1, concurrency);
+        this.meters = meters;
+    }
+
+    public void updateUsers(String realmName, List<UserApiV1> users, OutputStream out) throws IOException {
+        run(realmName, users, u -> {
+            if (u.getId() == null || u.getId().isBlank()) {
+                return new BatchItemResultApiV1(null, "FAILED", "id is required");
+            }
+            userService.applyUpdate(realmName, u.getId(), u);
+            return new BatchItemResultApiV1(u.getId(), "UPDATED", null);
+        }, UserApiV1::getId, out);
+    }
+
+    public void deleteUsers(String realmName, List<String> userIds, OutputStream out) throws IOException {
+        run(realmName, userIds, id -> new BatchItemResultApiV1(id,
+                userService.deleteInRealm(realmName, id) ? "DELETED" : "NOT_FOUND", null), id -> id, out);
+    }
+
+    private <T> void run(String realmName, List<T> items, Function<T, BatchItemResultApiV1> op,
+                         Function<T, String> idOf, OutputStream out) throws IOException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        Queue<BatchItemResultApiV1> done = new ConcurrentLinkedQueue<>();
+        try {
+            for (T item : items) {
+                inFlight.acquire();
+                rateLimiter.acquire(realmName);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            done.add(op.apply(item));
+                        } catch (NotFoundException e) {
+                            done.add(new BatchItemResultApiV1(idOf.apply(item), "NOT_FOUND", null));
+                        } catch (Exception e) {
+                            done.add(new BatchItemResultApiV1(idOf.apply(item), "FAILED", e.getMessage()));
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    done.add(new BatchItemResultApiV1(idOf.apply(item), "FAILED", "executor rejected the item"));
+                }
+                write(done, out);
+            }
+            inFlight.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        }
+        write(done, out);
+    }
+
+    private void write(Queue<BatchItemResultApiV1> done, OutputStream out) throws IOException {
+        BatchItemResultApiV1 r;
+        boolean any = false;
+        while ((r = done.poll()) != null) {
+            meters.counter("batch.users", "status", r.getStatus()).increment();
+            out.write(objectMapper.writeValueAsBytes(r));
+            out.write('\n');
+            any = true;
+        }
+        if (any) out.flush();
+    }
+}
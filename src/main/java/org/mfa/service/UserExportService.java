@@ -0,0 +1,144 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mfa.dto.ExportUserDto;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a realm's users straight to an output stream.
+ * <p>
+ * A producer pages through Keycloak ({@code export.page-size}) into a queue holding at most
+ * {@code export.prefetch-pages} pages while the caller's thread writes, so memory is bounded by
+ * the prefetch window. If no page arrives within {@code export.page-timeout-ms} (e.g. all producer
+ * threads are busy) the export fails instead of blocking its writer. Keycloak lists users in a
+ * stable order, so an export can be resumed with {@code cursor = previous cursor + records already received}.
+ */
+@Service
+public class UserExportService {
+
+    public enum Format { CSV, NDJSON }
+
+    private record Page(List<UserRepresentation> users, Throwable error) {
+        static final Page END = new Page(List.of(), null);
+    }
+
+    private final Keycloak keycloak;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final int prefetchPages;
+    private final long pageTimeoutMs;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final Counter exported;
+    private final Timer duration;
+
+    public UserExportService(Keycloak keycloak,
+                             @Qualifier("exportExecutor") ExecutorService executor,
+                             ObjectMapper objectMapper,
+                             @Value("${export.page-size:500}") int pageSize,
+                             @Value("${export.prefetch-pages:2}") int prefetchPages,
+                             @Value("${export.page-timeout-ms:60000}") long pageTimeoutMs,
+                             MeterRegistry meters) {
+        this.keycloak = keycloak;
+        this.executor = executor;
+        this.objectMapper = objectMapper;
+        this.pageSize = pageSize;
+        this.prefetchPages = Math.max(1, prefetchPages);
+        this.pageTimeoutMs = pageTimeoutMs;
+
+        meters.gauge("export.active", active);
+        this.exported = Counter.builder("export.users").description("Users written by exports").register(meters);
+        this.duration = Timer.builder("export.duration").register(meters);
+    }
+
+    public void export(String realm, Format format, long cursor, OutputStream out) throws IOException {
+        UsersResource users = keycloak.realm(realm).users();
+        BlockingQueue<Page> queue = new ArrayBlockingQueue<>(prefetchPages);
+        Future<?> producer = executor.submit(() -> produce(users, Math.max(0, cursor), queue));
+
+        active.incrementAndGet();
+        Timer.Sample sample = Timer.start();
+        try {
+            if (format == Format.CSV) out.write("username,displayName\n".getBytes(StandardCharsets.UTF_8));
+            while (true) {
+                Page page = queue.poll(pageTimeoutMs, TimeUnit.MILLISECONDS);
+                if (page == null) throw new IOException("Export aborted: no page from Keycloak within " + pageTimeoutMs + " ms");
+                if (page.error() != null) throw new IOException("Export aborted while reading from Keycloak", page.error());
+                if (page == Page.END) break;
+                for (UserRepresentation u : page.users()) {
+                    out.write(format == Format.CSV ? csvLine(toExport(u)) : jsonLine(toExport(u)));
+                }
+                out.flush();
+                exported.increment(page.users().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } finally {
+            producer.cancel(true);
+            active.decrementAndGet();
+            sample.stop(duration);
+        }
+    }
+
+    private void produce(UsersResource users, long cursor, BlockingQueue<Page> queue) {
+        try {
+            for (long first = cursor; ; first += pageSize) {
+                List<UserRepresentation> page = users.list((int) first, pageSize);
+                if (!page.isEmpty()) queue.put(new Page(page, null));
+                if (page.size() < pageSize) break;
+            }
+            queue.put(Page.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            try {
+                queue.put(new Page(List.of(), e));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static ExportUserDto toExport(UserRepresentation u) {
+        String fn = u.getFirstName() == null ? "" : u.getFirstName().trim();
+        String ln = u.getLastName() == null ? "" : u.getLastName().trim();
+        String displayName = (fn + " " + ln).trim();
+        if (displayName.isEmpty()) displayName = u.getUsername();
+        return new ExportUserDto(u.getUsername(), displayName, null); // Passwords never exported
+    }
+
+    private byte[] jsonLine(ExportUserDto u) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(u);
+        byte[] line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[json.length] = '\n';
+        return line;
+    }
+
+    private static byte[] csvLine(ExportUserDto u) {
+        return (csv(u.getUsername()) + "," + csv(u.getDisplayName()) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String csv(String v) {
+        if (v == null) return "";
+        if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) return v;
+        return '"' + v.replace("\"", "\"\"") + '"';
+    }
+}
@@ -19,6 +19,7 @@ import java.util.List;
 public class UserGroupService {
 
     private final Keycloak keycloak;
+    private final RealmDirectory realms;
 
     private static final String MFA_CLIENT_ID = "mfa-client";
     private static final String MFA_CLIENT_SECRET = "mfa-client-secret";
@@ -30,12 +31,13 @@ public class UserGroupService {
         rep.setEnabled(true);
 
         keycloak.realms().create(rep);
+        realms.invalidate();
 
         setupMfaClientForRealm(req.getName());
     }
 
     public List<UserGroupApiV1> listUserGroups() {
-        return keycloak.realms().findAll().stream()
+        return realms.all().stream()
                 .map(r -> new UserGroupApiV1(
                         r.getId(),
                         r.getRealm(),
@@ -44,9 +46,7 @@ public class UserGroupService {
     }
 
     public UserGroupApiV1 getUserGroupById(String userGroupId) {
-        RealmRepresentation realm = keycloak.realms().findAll().stream()
-                .filter(r -> r.getId().equalsIgnoreCase(userGroupId))
-                .findFirst()
+        RealmRepresentation realm = realms.find(userGroupId)
                 .orElseThrow(() ->
                         new RuntimeException("User group (realm) with id " + userGroupId + " not found"));
 
@@ -58,12 +58,11 @@ public class UserGroupService {
     }
 
     public UserGroupApiV1 patchUserGroupById(String userGroupId, UserGroupApiV1 userGroupApiV1) {
-        RealmRepresentation existingRealm = keycloak.realms().findAll().stream()
-                .filter(r -> r.getId().equalsIgnoreCase(userGroupId))
-                .findFirst()
+        String realmName = realms.realmName(userGroupId)
                 .orElseThrow(() -> new RuntimeException("Realm with id " + userGroupId + " not found"));
 
-        RealmResource realmResource = keycloak.realm(existingRealm.getRealm());
+        RealmResource realmResource = keycloak.realm(realmName);
+        RealmRepresentation existingRealm = realmResource.toRepresentation();
 
 
         if (userGroupApiV1.getName() != null && !userGroupApiV1.getName().isBlank()) {
@@ -75,6 +74,7 @@ public class UserGroupService {
         }
 
         realmResource.update(existingRealm);
+        realms.invalidate();
 
         RealmRepresentation updated = keycloak.realm(existingRealm.getRealm()).toRepresentation();
 
@@ -87,6 +87,7 @@ public class UserGroupService {
 
     public void deleteRealm(String realmName) {
         keycloak.realm(realmName).remove();
+        realms.invalidate();
     }
 
     private void setupMfaClientForRealm(String realmName) {
@@ -0,0 +1,214 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.ws.rs.core.Response;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mfa.dto.ImportRowResultApiV1;
+import org.mfa.dto.ImportSummaryApiV1;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Bulk user import through Keycloak's partial import.
+ * <p>
+ * Users are read one at a time from the request body (NDJSON, a JSON array, or a realm export such
+ * as {@code importBcrypt.json} with a {@code users} array) and sent in chunks of
+ * {@code import.chunk-size}, with at most {@code import.parallelism} chunks in flight. Credentials
+ * are passed through as-is, so pre-hashed (e.g. bcrypt) passwords keep working. Per-row results are
+ * written as NDJSON as chunks complete, followed by a summary line; memory is bounded by the
+ * in-flight chunks, not by the file size.
+ */
+@Service
+public class UserImportService {
+
+    private record Row(long row, UserRepresentation user) {}
+
+    private final Keycloak keycloak;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int parallelism;
+    private final MeterRegistry meters;
+
+    public UserImportService(Keycloak keycloak,
+                             ObjectMapper objectMapper,
+                             @Qualifier("bulkExecutor") ExecutorService executor,
+                             @Value("${import.chunk-size:200}") int chunkSize,
+                             @Value("${import.parallelism:4}") int parallelism,
+                             MeterRegistry meters) {
+        this.keycloak = keycloak;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.meters = meters;
+    }
+
+    @FunctionalInterface
+    private interface UserHandler {
+        void accept(UserRepresentation user) throws IOException, InterruptedException;
+    }
+
+    /**
+     * @param ndjson   body is newline-delimited user objects; otherwise a JSON array or a realm document
+     * @param ifExists SKIP, FAIL or OVERWRITE (Keycloak partial-import policy)
+     */
+    public void importUsers(String realm, InputStream in, boolean ndjson, String ifExists, OutputStream out)
+            throws IOException {
+        RealmResource rr = keycloak.realm(realm);
+        String policy = ifExists.trim().toUpperCase(Locale.ROOT);
+        long start = System.nanoTime();
+
+        Semaphore inFlight = new Semaphore(parallelism);
+        Queue<List<ImportRowResultApiV1>> done = new ConcurrentLinkedQueue<>();
+        ImportSummaryApiV1 summary = new ImportSummaryApiV1();
+
+        try (JsonParser p = objectMapper.getFactory().createParser(in)) {
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            long[] row = {0};
+            readUsers(p, ndjson, user -> {
+                chunk.add(new Row(++row[0], user));
+                if (chunk.size() == chunkSize) {
+                    submit(rr, List.copyOf(chunk), policy, inFlight, done);
+                    chunk.clear();
+                    write(done, summary, out);
+                }
+            });
+            if (!chunk.isEmpty()) submit(rr, List.copyOf(chunk), policy, inFlight, done);
+
+            inFlight.acquire(parallelism);
+            write(done, summary, out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+
+        summary.setSeconds((System.nanoTime() - start) / 1e9);
+        summary.setUsersPerSecond(summary.getSeconds() > 0 ? summary.getTotal() / summary.getSeconds() : 0);
+        out.write(objectMapper.writeValueAsBytes(summary));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void readUsers(JsonParser p, boolean ndjson, UserHandler h) throws IOException, InterruptedException {
+        JsonToken t = p.nextToken();
+        if (t == null) return;
+        if (t == JsonToken.START_ARRAY) {
+            readArray(p, h);
+            return;
+        }
+        if (t != JsonToken.START_OBJECT) {
+            throw new IOException("Expected NDJSON users, a JSON array of users or a realm document");
+        }
+        if (ndjson) {
+            do {
+                h.accept(p.readValueAs(UserRepresentation.class));
+            } while (p.nextToken() == JsonToken.START_OBJECT);
+            return;
+        }
+        // Realm document: stream the "users" array, skip everything else
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            if ("users".equals(field) && value == JsonToken.START_ARRAY) readArray(p, h);
+            else p.skipChildren();
+        }
+    }
+
+    private static void readArray(JsonParser p, UserHandler h) throws IOException, InterruptedException {
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            h.accept(p.readValueAs(UserRepresentation.class));
+        }
+    }
+
+    private void submit(RealmResource rr, List<Row> chunk, String policy,
+                        Semaphore inFlight, Queue<List<ImportRowResultApiV1>> done) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    done.add(importChunk(rr, chunk, policy));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor shutting down: report the rows and give the permit back, or the final acquire never returns
+            inFlight.release();
+            done.add(chunk.stream().map(r -> failed(r, "Import worker unavailable")).toList());
+        }
+    }
+
+    private List<ImportRowResultApiV1> importChunk(RealmResource rr, List<Row> chunk, String policy) {
+        PartialImportRepresentation rep = new PartialImportRepresentation();
+        rep.setIfResourceExists(policy);
+        rep.setUsers(chunk.stream().map(Row::user).toList());
+
+        List<ImportRowResultApiV1> results = new ArrayList<>(chunk.size());
+        try (Response resp = rr.partialImport(rep)) {
+            if (resp.getStatus() < 200 || resp.getStatus() >= 300) {
+                String err = "HTTP " + resp.getStatus() + ": " + resp.readEntity(String.class);
+                chunk.forEach(r -> results.add(failed(r, err)));
+                return results;
+            }
+
+            Map<String, Map<String, Object>> byUsername = new HashMap<>();
+            Object list = resp.readEntity(Map.class).get("results");
+            if (list instanceof List<?> l) {
+                for (Object o : l) {
+                    if (o instanceof Map<?, ?> m && "USER".equals(m.get("resourceType")) && m.get("resourceName") != null) {
+                        @SuppressWarnings("unchecked") var entry = (Map<String, Object>) m;
+                        byUsername.put(String.valueOf(m.get("resourceName")).toLowerCase(Locale.ROOT), entry);
+                    }
+                }
+            }
+            for (Row r : chunk) {
+                String username = r.user().getUsername();
+                var m = username == null ? null : byUsername.get(username.toLowerCase(Locale.ROOT));
+                results.add(m == null
+                        ? failed(r, "Not reported by Keycloak")
+                        : new ImportRowResultApiV1(r.row(), username, String.valueOf(m.get("action")),
+                                (String) m.get("id"), null));
+            }
+        } catch (Exception e) {
+            chunk.forEach(r -> results.add(failed(r, e.getMessage())));
+        }
+        return results;
+    }
+
+    private void write(Queue<List<ImportRowResultApiV1>> done, ImportSummaryApiV1 summary, OutputStream out) throws IOException {
+        List<ImportRowResultApiV1> batch;
+        while ((batch = done.poll()) != null) {
+            for (ImportRowResultApiV1 r : batch) {
+                summary.setTotal(summary.getTotal() + 1);
+                switch (r.getStatus()) {
+                    case "ADDED" -> summary.setAdded(summary.getAdded() + 1);
+                    case "SKIPPED" -> summary.setSkipped(summary.getSkipped() + 1);
+                    case "OVERWRITTEN" -> summary.setOverwritten(summary.getOverwritten() + 1);
+                    default -> summary.setFailed(summary.getFailed() + 1);
+                }
+                meters.counter("import.users", "status", r.getStatus()).increment();
+                out.write(objectMapper.writeValueAsBytes(r));
+                out.write('\n');
+            }
+            out.flush();
+        }
+    }
+
+    private static ImportRowResultApiV1 failed(Row r, String error) {
+        return new ImportRowResultApiV1(r.row(), r.user().getUsername(), "FAILED", null, error);
+    }
+}
@@ -0,0 +1,106 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.util.JsonSerialization;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived per-(realm, user) cache of user representations for single-user reads.
+ * <p>
+ * Entries are kept as JSON, so every hit returns a fresh copy that callers may modify. All entries
+ * share one TTL, so insertion order is also expiry order: each insert first drops up to
+ * {@value #EVICT_BATCH} entries from the head of that queue, expired ones always and the oldest ones
+ * while the cache holds {@code user.cache.max-size}. Writes through {@link UserService} invalidate.
+ */
+@Component
+public class UserRepresentationCache {
+
+    private static final int EVICT_BATCH = 16;
+
+    private record Key(String realm, String userId) {}
+    private record Entry(Key key, byte[] json, long expiresAt) {}
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    /** Insertion order; may still hold replaced or invalidated entries, which are skipped on eviction. */
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public UserRepresentationCache(@Value("${user.cache.ttl-seconds:30}") long ttlSeconds,
+                                   @Value("${user.cache.max-size:10000}") int maxSize,
+                                   MeterRegistry meters) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxSize = maxSize;
+        Gauge.builder("user.cache.size", entries, Map::size).register(meters);
+        this.hits = Counter.builder("user.cache.requests").tag("result", "hit").register(meters);
+        this.misses = Counter.builder("user.cache.requests").tag("result", "miss").register(meters);
+    }
+
+    public UserRepresentation get(String realm, String userId, Supplier<UserRepresentation> loader) {
+        Key key = new Key(realm, userId);
+        long now = System.currentTimeMillis();
+
+        Entry e = entries.get(key);
+        if (e != null && e.expiresAt() > now) {
+            hits.increment();
+            return read(e.json());
+        }
+        misses.increment();
+
+        UserRepresentation rep = loader.get();
+        evict(now);
+        Entry fresh = new Entry(key, write(rep), now + ttlMillis);
+        entries.put(key, fresh);
+        order.add(fresh);
+        return rep;
+    }
+
+    public void invalidate(String realm, String userId) {
+        entries.remove(new Key(realm, userId));
+    }
+
+    /** For events that only name the user; ids are unique across realms. */
+    public void invalidateUser(String userId) {
+        entries.keySet().removeIf(k -> k.userId().equals(userId));
+    }
+
+    private void evict(long now) {
+        for (int i = 0; i < EVICT_BATCH; i++) {
+            Entry head = order.peek();
+            if (head == null || (head.expiresAt() > now && entries.size() < maxSize)) return;
+            Entry polled = order.poll();
+            if (polled != null) entries.remove(polled.key(), polled);
+        }
+    }
+
+    private static byte[] write(UserRepresentation rep) {
+        try {
+            return JsonSerialization.writeValueAsBytes(rep);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static UserRepresentation read(byte[] json) {
+        try {
+            return JsonSerialization.readValue(json, UserRepresentation.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
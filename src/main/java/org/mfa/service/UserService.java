@@ -1,28 +1,54 @@
 package org.mfa.service;
 
-import org.keycloak.admin.client.resource.RealmResource;
-import org.keycloak.representations.idm.RealmRepresentation;
-import org.mfa.dto.ExportUserDto;
 import org.mfa.dto.UserApiV1;
+import org.mfa.dto.UserQueryApiV1;
+import org.mfa.security.DeviceTrustService;
+import org.mfa.security.RefreshTokenService;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.UsersResource;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public class UserService {
 
     private final Keycloak keycloak;
+    private final RealmDirectory realms;
+    private final UserRepresentationCache userCache;
+    private final CredentialTypeCache credentialTypes;
+    private final RefreshTokenService refreshTokens;
+    private final DeviceTrustService deviceTrust;
 
-    public UserService(Keycloak keycloak) {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    @Value("${user.page.max-size:1000}")
+    private int maxPageSize;
+
+    @Value("${user.stream.page-size:500}")
+    private int streamPageSize;
+
+    public UserService(Keycloak keycloak, RealmDirectory realms, UserRepresentationCache userCache,
+                       CredentialTypeCache credentialTypes, RefreshTokenService refreshTokens,
+                       DeviceTrustService deviceTrust) {
         this.keycloak = keycloak;
+        this.realms = realms;
+        this.userCache = userCache;
+        this.credentialTypes = credentialTypes;
+        this.refreshTokens = refreshTokens;
+        this.deviceTrust = deviceTrust;
     }
 
     public UserApiV1 createUser(String realm, UserApiV1 userApiV1) {
@@ -63,36 +89,64 @@ public class UserService {
         }
     }
 
-    public List<UserApiV1> listUsers(String userGroupId) {
-        String userGroupName = keycloak.realms()
-                .findAll()
-                .stream()
-                .filter(r -> r.getId().equalsIgnoreCase(userGroupId))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("User Group with given id doesn't exist"))
-                .getRealm();
-        UsersResource usersResource = keycloak.realm(userGroupName).users();
-        return usersResource.list().stream().map(this::toUserApiV1).toList();
+    public String resolveRealm(String userGroupId) {
+        return realms.realmName(userGroupId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User Group with given id doesn't exist"));
+    }
+
+    public List<UserApiV1> listUsers(String userGroupId, UserQueryApiV1 query) {
+        int first = Math.max(0, Optional.ofNullable(query.getFirst()).orElse(0));
+        int max = Math.min(maxPageSize, Math.max(1, Optional.ofNullable(query.getMax()).orElse(DEFAULT_PAGE_SIZE)));
+        return searchPage(keycloak.realm(resolveRealm(userGroupId)).users(), query, first, max)
+                .stream().map(this::toUserApiV1).toList();
+    }
+
+    /**
+     * Walks the whole result set page by page ({@code user.stream.page-size}); only one page is in
+     * memory at a time. {@code first}/{@code max} of the query are ignored.
+     */
+    public void forEachUserPage(String realmName, UserQueryApiV1 query, Consumer<List<UserApiV1>> page) {
+        UsersResource usersResource = keycloak.realm(realmName).users();
+        for (int first = 0; ; first += streamPageSize) {
+            List<UserRepresentation> reps = searchPage(usersResource, query, first, streamPageSize);
+            if (reps.isEmpty()) return;
+            page.accept(reps.stream().map(this::toUserApiV1).toList());
+            if (reps.size() < streamPageSize) return;
+        }
+    }
+
+    private List<UserRepresentation> searchPage(UsersResource users, UserQueryApiV1 q, int first, int max) {
+        Boolean brief = q.getBriefRepresentation();
+        if (q.getSearch() != null && !q.getSearch().isBlank()) {
+            return users.search(q.getSearch().trim(), first, max, brief);
+        }
+        return users.search(q.getUsername(), q.getFirstName(), q.getLastName(), q.getEmail(), first, max, null, brief);
     }
 
     public UserApiV1 getUser(String userGroupId, String userId) {
-        return listUsers(userGroupId)
-                .stream()
-                .filter(u -> u.getId().equalsIgnoreCase(userId))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("User with given id doesn't exist"));
+        String userGroupName = resolveRealm(userGroupId);
+        try {
+            var rep = userCache.get(userGroupName, userId,
+                    () -> keycloak.realm(userGroupName).users().get(userId).toRepresentation());
+            return toUserApiV1(rep);
+        } catch (NotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User with given id doesn't exist");
+        }
     }
 
     public UserApiV1 updateUser(String userGroupId, String userId, UserApiV1 userApiV1) {
-        RealmRepresentation realmRep = keycloak.realms().findAll().stream()
-                .filter(r -> r.getId().equalsIgnoreCase(userGroupId))
-                .findFirst()
+        String realmName = realms.realmName(userGroupId)
                 .orElseThrow(() -> new RuntimeException("Realm (user group) with id " + userGroupId + " not found"));
 
-        RealmResource realmResource = keycloak.realm(realmRep.getRealm());
+        applyUpdate(realmName, userId, userApiV1);
+        return toUserApiV1(keycloak.realm(realmName).users().get(userId).toRepresentation());
+    }
 
-        var users = realmResource.users();
-        var ur = users.get(userId);
+    /**
+     * Read-modify-write of one user in an already resolved realm; shared by single and batch PATCH.
+     */
+    public void applyUpdate(String realmName, String userId, UserApiV1 userApiV1) {
+        var ur = keycloak.realm(realmName).users().get(userId);
         UserRepresentation rep = ur.toRepresentation();
 
         if (userApiV1.getUsername() != null) rep.setUsername(userApiV1.getUsername());
@@ -113,6 +167,7 @@ public class UserService {
         rep.setAttributes(attrs);
 
         ur.update(rep);
+        userCache.invalidate(realmName, userId);
 
         if (userApiV1.getPassword() != null && !userApiV1.getPassword().isBlank()) {
             CredentialRepresentation cred = new CredentialRepresentation();
@@ -120,21 +175,31 @@ public class UserService {
             cred.setTemporary(false);
             cred.setValue(userApiV1.getPassword());
             ur.resetPassword(cred);
+            credentialTypes.invalidate(realmName, userId);
+            refreshTokens.revokeUser(userId);
+            deviceTrust.forgetUser(realmName, userId);
         }
-
-        return toUserApiV1(ur.toRepresentation());
     }
 
     public void deleteUser(String userGroupId, String userId) {
-        RealmRepresentation realmRep = keycloak.realms().findAll().stream()
-                .filter(r -> r.getId().equalsIgnoreCase(userGroupId))
-                .findFirst()
+        String realmName = realms.realmName(userGroupId)
                 .orElseThrow(() -> new RuntimeException(
                         "Realm (user group) with id " + userGroupId + " not found"));
 
-        RealmResource realmResource = keycloak.realm(realmRep.getRealm());
+        deleteInRealm(realmName, userId);
+    }
 
-        realmResource.users().delete(userId).close();
+    /**
+     * @return false if the user did not exist
+     */
+    public boolean deleteInRealm(String realmName, String userId) {
+        try (Response resp = keycloak.realm(realmName).users().delete(userId)) {
+            userCache.invalidate(realmName, userId);
+            credentialTypes.invalidate(realmName, userId);
+            refreshTokens.revokeUser(userId);
+            deviceTrust.forgetUser(realmName, userId);
+            return resp.getStatus() != 404;
+        }
     }
 
 
@@ -150,17 +215,6 @@ public class UserService {
                 .executeActionsEmail(Collections.singletonList("VERIFY_EMAIL"));
     }
 
-    public List<ExportUserDto> exportUsers(String realm) {
-        var usersResource = keycloak.realm(realm).users();
-        return usersResource.list().stream().map(u -> {
-            String fn = u.getFirstName() == null ? "" : u.getFirstName().trim();
-            String ln = u.getLastName() == null ? "" : u.getLastName().trim();
-            String displayName = (fn + " " + ln).trim();
-            if (displayName.isEmpty()) displayName = u.getUsername();
-            return new ExportUserDto(u.getUsername(), displayName, null); // Passwords never exported
-        }).toList();
-    }
-
     private String getCreatedIdFromResponse(Response response) {
         String location = response.getHeaderString("Location");
         if (location != null) {
@@ -0,0 +1,118 @@
+package org.mfa.service;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.mfa.dto.Needs;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Loads everything the login flow needs to know about a user (representation + credential types)
+ * in one go, so a single request never asks Keycloak for the same user twice. Credential types
+ * come from {@link CredentialTypeCache} when cached.
+ */
+@Service
+public class UserSnapshotService {
+
+    private final Keycloak keycloak;
+    private final ExecutorService executor;
+    private final CredentialTypeCache credentialTypes;
+
+    public UserSnapshotService(Keycloak keycloak,
+                               @Qualifier("keycloakExecutor") ExecutorService executor,
+                               CredentialTypeCache credentialTypes) {
+        this.keycloak = keycloak;
+        this.executor = executor;
+        this.credentialTypes = credentialTypes;
+    }
+
+    /** @param credentialTypes {@link CredentialTypeCache} bitset */
+    public static record Snapshot(UserRepresentation rep, int credentialTypes) {
+
+        public boolean emailMissing() {
+            return rep.getEmail() == null || rep.getEmail().isBlank();
+        }
+
+        public boolean emailVerified() {
+            return Boolean.TRUE.equals(rep.isEmailVerified());
+        }
+
+        public boolean hasTotp() {
+            return (credentialTypes & CredentialTypeCache.OTP) != 0;
+        }
+
+        public List<String> requiredActions() {
+            return Optional.ofNullable(rep.getRequiredActions()).orElse(List.of());
+        }
+
+        public String phoneE164() {
+            return phoneE164(rep);
+        }
+
+        /**
+         * @param pendingActions true when Keycloak refused the password grant because required
+         *                       actions are pending; those actions then also drive the flags
+         */
+        public Needs needs(boolean pendingActions) {
+            var ra = pendingActions ? requiredActions() : List.<String>of();
+            var needs = new Needs();
+            needs.setEmailMissing(emailMissing());
+            needs.setVerifyEmail(!emailMissing() && !emailVerified() || ra.contains("VERIFY_EMAIL"));
+            needs.setConfigureTotp(!hasTotp() || ra.contains("CONFIGURE_TOTP"));
+            return needs;
+        }
+
+        public String[] methods() {
+            var methods = new ArrayList<String>();
+            if (!emailMissing()) methods.add("email");
+            methods.add("totp");
+            if (phoneE164() != null) methods.add("sms");
+            return methods.toArray(String[]::new);
+        }
+
+        public static String phoneE164(UserRepresentation rep) {
+            if (rep.getAttributes() == null) return null;
+            var vals = rep.getAttributes().get("phone_number");
+            if (vals == null || vals.isEmpty()) return null;
+            var s = vals.get(0);
+            return (s != null && s.trim().startsWith("+")) ? s.trim() : null;
+        }
+    }
+
+    /**
+     * Fetches the user representation and, unless cached, the credentials concurrently.
+     * A failing credentials call degrades to "no credentials" (same as the old userHasTotp);
+     * a failing representation call is rethrown.
+     *
+     * @param kcCalls incremented by the number of admin REST calls made
+     */
+    public Snapshot load(String realm, String userId, int[] kcCalls) {
+        UserResource ur = keycloak.realms().realm(realm).users().get(userId);
+
+        Integer cached = credentialTypes.cached(realm, userId);
+        if (cached != null) {
+            kcCalls[0]++;
+            return new Snapshot(ur.toRepresentation(), cached);
+        }
+
+        kcCalls[0] += 2;
+        var repF = CompletableFuture.supplyAsync(ur::toRepresentation, executor);
+        var typesF = CompletableFuture.supplyAsync(
+                () -> credentialTypes.load(realm, userId, ur::credentials), executor);
+
+        try {
+            return new Snapshot(repF.join(), typesF.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.mfa.util;
+
+import org.mfa.dto.Attempt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+
+/**
+ * Compact binary form of {@link Attempt} for shared stores: a version byte, a presence bitmask,
+ * then only the fields that are set (modified UTF-8 strings, length-prefixed bytes, epoch-millis longs).
+ */
+public final class AttemptCodec {
+
+    private static final byte VERSION = 2;
+
+    private static final int REALM = 1, USERNAME = 1 << 1, USER_ID = 1 << 2, PASSWORD = 1 << 3,
+            CREATED_AT = 1 << 6, FAILED_CHECKS = 1 << 7;
+
+    private AttemptCodec() {}
+
+    public static byte[] encode(Attempt a) {
+        int mask = (a.getRealm() != null ? REALM : 0)
+                | (a.getUsername() != null ? USERNAME : 0)
+                | (a.getUserId() != null ? USER_ID : 0)
+                | (a.getSealedPassword() != null ? PASSWORD : 0)
+                | (a.getCreatedAt() != null ? CREATED_AT : 0)
+                | (a.getFailedChecks() != 0 ? FAILED_CHECKS : 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte(mask);
+            if ((mask & REALM) != 0) out.writeUTF(a.getRealm());
+            if ((mask & USERNAME) != 0) out.writeUTF(a.getUsername());
+            if ((mask & USER_ID) != 0) out.writeUTF(a.getUserId());
+            if ((mask & PASSWORD) != 0) {
+                out.writeShort(a.getSealedPassword().length);
+                out.write(a.getSealedPassword());
+            }
+            if ((mask & CREATED_AT) != 0) out.writeLong(a.getCreatedAt().toEpochMilli());
+            if ((mask & FAILED_CHECKS) != 0) out.writeInt(a.getFailedChecks());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Attempt decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte version = in.readByte();
+            if (version != VERSION) throw new IllegalStateException("Unsupported attempt encoding v" + version);
+            int mask = in.readUnsignedByte();
+
+            Attempt a = new Attempt();
+            if ((mask & REALM) != 0) a.setRealm(in.readUTF());
+            if ((mask & USERNAME) != 0) a.setUsername(in.readUTF());
+            if ((mask & USER_ID) != 0) a.setUserId(in.readUTF());
+            if ((mask & PASSWORD) != 0) {
+                byte[] sealed = new byte[in.readUnsignedShort()];
+                in.readFully(sealed);
+                a.setSealedPassword(sealed);
+            }
+            if ((mask & CREATED_AT) != 0) a.setCreatedAt(Instant.ofEpochMilli(in.readLong()));
+            if ((mask & FAILED_CHECKS) != 0) a.setFailedChecks(in.readInt());
+            return a;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
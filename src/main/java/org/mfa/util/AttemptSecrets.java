@@ -0,0 +1,102 @@
+package org.mfa.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Keeps secrets of a pending attempt out of the store in plaintext.
+ * <ul>
+ *   <li>The password (still needed for the Keycloak TOTP grant) is sealed with AES-GCM.</li>
+ *   <li>Email OTPs are kept as a 64-bit HMAC tag salted with the attempt id.</li>
+ * </ul>
+ * Keys derive from {@code mfa.attempt.secret} (base64). Without it a random key is generated per
+ * instance, which is fine for the in-memory store; shared stores need the same secret everywhere.
+ */
+@Slf4j
+@Component
+public class AttemptSecrets {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int IV_BYTES = 12;
+
+    private final SecretKey encKey;
+    private final SecretKey macKey;
+    private final boolean ephemeral;
+    private final Mac hmac;
+
+    public AttemptSecrets(@Value("${mfa.attempt.secret:}") String secret) throws GeneralSecurityException {
+        byte[] master;
+        if (secret.isBlank()) {
+            master = KeyGenerator.getInstance("HmacSHA256").generateKey().getEncoded();
+            this.ephemeral = true;
+        } else {
+            master = Base64.getDecoder().decode(secret.trim());
+            this.ephemeral = false;
+        }
+        this.encKey = new SecretKeySpec(derive(master, "attempt-enc"), 0, 16, "AES");
+        this.macKey = new SecretKeySpec(derive(master, "attempt-otp"), "HmacSHA256");
+        this.hmac = Macs.keyed("HmacSHA256", macKey);
+    }
+
+    /** True when keys were generated at startup and are not shared with other instances. */
+    public boolean ephemeral() {
+        return ephemeral;
+    }
+
+    /** IV followed by the GCM ciphertext and tag; null stays null. */
+    public byte[] seal(String plaintext) {
+        if (plaintext == null) return null;
+        try {
+            byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+            Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            c.init(Cipher.ENCRYPT_MODE, encKey, new GCMParameterSpec(128, iv));
+            byte[] ct = c.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.allocate(IV_BYTES + ct.length).put(iv).put(ct).array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Null when {@code sealed} is null or was not produced with this key. */
+    public String open(byte[] sealed) {
+        if (sealed == null || sealed.length <= IV_BYTES) return null;
+        try {
+            Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            c.init(Cipher.DECRYPT_MODE, encKey, new GCMParameterSpec(128, sealed, 0, IV_BYTES));
+            return new String(c.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            log.warn("Could not open a sealed attempt secret (key changed?)");
+            return null;
+        }
+    }
+
+    /** 64-bit tag of {@code code} for this attempt; never 0, so 0 can mean "no OTP". */
+    public long otpTag(String attemptId, String code) {
+        Mac mac = Macs.copy(hmac);
+        mac.update(attemptId.getBytes(StandardCharsets.US_ASCII));
+        mac.update((byte) 0);
+        byte[] h = mac.doFinal(code.getBytes(StandardCharsets.UTF_8));
+        long tag = ByteBuffer.wrap(h).getLong();
+        return tag == 0 ? 1 : tag;
+    }
+
+    private static byte[] derive(byte[] master, String label) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(master, "HmacSHA256"));
+        return mac.doFinal(label.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -1,19 +1,166 @@
 package org.mfa.util;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound OTP mail. {@link #sendOtp} only enqueues; a small worker pool drains the queue and
+ * sends up to {@code mail.queue.batch-size} messages per SMTP session via
+ * {@link JavaMailSender#send(SimpleMailMessage...)}. Failed messages are retried with exponential
+ * backoff up to {@code mail.queue.max-attempts}. The queue is in-process and bounded: it is drained
+ * on shutdown, but pending mail does not survive a crash (an OTP is useless after 5 minutes anyway).
+ */
+@Slf4j
 @Component
 public class EmailSender {
+
+    private record Outgoing(SimpleMailMessage msg, int attempt) {}
+
     private final JavaMailSender mail;
-    public EmailSender(JavaMailSender mail) { this.mail = mail; }
+    private final BlockingQueue<Outgoing> queue;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retries;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private volatile boolean running = true;
+
+    private final Timer sendLatency;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter dropped;
+
+    public EmailSender(JavaMailSender mail,
+                       @Value("${mail.queue.capacity:10000}") int capacity,
+                       @Value("${mail.queue.workers:2}") int workerCount,
+                       @Value("${mail.queue.batch-size:20}") int batchSize,
+                       @Value("${mail.queue.max-attempts:3}") int maxAttempts,
+                       @Value("${mail.queue.backoff-ms:1000}") long backoffMillis,
+                       MeterRegistry meters) {
+        this.mail = mail;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
 
-    public void sendOtp(String to, String code) {
+        Gauge.builder("mail.queue.depth", queue, BlockingQueue::size).register(meters);
+        this.sendLatency = Timer.builder("mail.send.latency")
+                .description("Time to send one batch over a single SMTP session")
+                .publishPercentileHistogram()
+                .register(meters);
+        this.sent = Counter.builder("mail.sent").register(meters);
+        this.retried = Counter.builder("mail.retried").register(meters);
+        this.dropped = Counter.builder("mail.dropped")
+                .description("Messages rejected by a full queue or out of retries")
+                .register(meters);
+
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> new Thread(r, "mail-worker-" + n.incrementAndGet()));
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mail-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < workerCount; i++) workers.execute(this::work);
+    }
+
+    /** @return false if the queue is full and the message was not accepted */
+    public boolean sendOtp(String to, String code) {
         SimpleMailMessage msg = new SimpleMailMessage();
         msg.setTo(to);
         msg.setSubject("Your verification code");
         msg.setText("Your one-time verification code is: " + code + "\nIt expires in 5 minutes.");
-        mail.send(msg);
+        return enqueue(new Outgoing(msg, 1));
+    }
+
+    private boolean enqueue(Outgoing o) {
+        if (running && queue.offer(o)) return true;
+        dropped.increment();
+        return false;
+    }
+
+    private void work() {
+        List<Outgoing> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Outgoing first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Outgoing> batch) {
+        long start = System.nanoTime();
+        try {
+            mail.send(batch.stream().map(Outgoing::msg).toArray(SimpleMailMessage[]::new));
+            sent.increment(batch.size());
+        } catch (MailSendException e) {
+            // Keys are the original SimpleMailMessages; everything else in the batch went out
+            Map<Object, Exception> failed = e.getFailedMessages();
+            for (Outgoing o : batch) {
+                if (failed.isEmpty() || failed.containsKey(o.msg())) retry(o, e);
+                else sent.increment();
+            }
+        } catch (MailException e) {
+            batch.forEach(o -> retry(o, e));
+        } finally {
+            sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void retry(Outgoing o, Exception cause) {
+        if (o.attempt() >= maxAttempts || !running) {
+            dropped.increment();
+            log.warn("Giving up on OTP mail to {} after {} attempt(s): {}",
+                    mask(o.msg().getTo()), o.attempt(), cause.getMessage());
+            return;
+        }
+        retried.increment();
+        long delay = backoffMillis << (o.attempt() - 1);
+        retries.schedule(() -> enqueue(new Outgoing(o.msg(), o.attempt() + 1)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** "alice@example.com" → "a***@example.com", so logs show the domain but not the mailbox. */
+    static String mask(String... to) {
+        if (to == null) return "";
+        StringJoiner masked = new StringJoiner(",");
+        for (String address : to) {
+            int at = address == null ? -1 : address.lastIndexOf('@');
+            masked.add(at < 1 ? "***" : address.charAt(0) + "***" + address.substring(at));
+        }
+        return masked.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        retries.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS)) workers.shutdownNow();
     }
 }
@@ -0,0 +1,359 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.mfa.dto.Attempt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-node {@link PendingMfaStore}. Attempts expire {@code mfa.attempt.ttl-seconds} after {@code createdAt}. Ids are indexed in
+ * time buckets ({@code mfa.attempt.bucket-seconds} wide) so the sweeper only touches buckets
+ * that are entirely expired instead of scanning the whole map. The store is capped at
+ * {@code mfa.attempt.max-size}; once full, {@code mfa.attempt.overflow} decides whether the
+ * oldest attempt is evicted ({@code evict-oldest}) or the new one is refused ({@code reject}).
+ * A slot is reserved in {@code size} before an attempt is inserted, so concurrent logins cannot
+ * overshoot the cap.
+ * <p>
+ * Entries are kept compact: ids as binary {@link UUID}s, realm/username/userId interned, times
+ * as epoch millis, the password sealed and the email OTP as a 64-bit tag ({@link AttemptSecrets}).
+ */
+@Component
+@ConditionalOnProperty(name = "mfa.store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPendingMfaStore implements PendingMfaStore {
+
+    public enum OverflowPolicy { EVICT_OLDEST, REJECT }
+
+    private record StateBinding(String attemptId, long createdAtMillis) {}
+
+    /** OTP fields and the failure count are guarded by the entry's monitor. */
+    private static final class Entry {
+        final String realm;
+        final String username;
+        final String userId;
+        final byte[] sealedPassword;
+        final long createdAt;
+        long otpTag;
+        long otpExpiresAt;
+        int failedChecks;
+
+        Entry(String realm, String username, String userId, byte[] sealedPassword, long createdAt) {
+            this.realm = realm;
+            this.username = username;
+            this.userId = userId;
+            this.sealedPassword = sealedPassword;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final Map<UUID, Entry> attempts = new ConcurrentHashMap<>();
+    /** Reserved slots: incremented before an insert, decremented by whoever removes the entry. */
+    private final AtomicInteger size = new AtomicInteger();
+    private final Map<String, StateBinding> stateToAttempt = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Queue<UUID>> buckets = new ConcurrentSkipListMap<>();
+    private final LockoutPolicy lockout;
+    private final UserLockouts userLockouts;
+    private final Revocations revocations = new Revocations();
+    private final AttemptSecrets secrets;
+
+    private final long ttlMillis;
+    private final long bucketMillis;
+    private final int maxSize;
+    private final OverflowPolicy overflow;
+
+    private final Counter expired;
+    private final Counter overflowEvicted;
+    private final Counter rejected;
+    private final Counter exhausted;
+    private final DistributionSummary ageAtRemoval;
+
+    public InMemoryPendingMfaStore(@Value("${mfa.attempt.ttl-seconds:600}") long ttlSeconds,
+                           @Value("${mfa.attempt.bucket-seconds:10}") long bucketSeconds,
+                           @Value("${mfa.attempt.max-size:100000}") int maxSize,
+                           @Value("${mfa.attempt.overflow:evict-oldest}") String overflow,
+                           LockoutPolicy lockout,
+                           AttemptSecrets secrets,
+                           MeterRegistry meters) {
+        this.lockout = lockout;
+        this.userLockouts = new UserLockouts(lockout);
+        this.secrets = secrets;
+        this.ttlMillis = Duration.ofSeconds(ttlSeconds).toMillis();
+        this.bucketMillis = Duration.ofSeconds(Math.max(1, bucketSeconds)).toMillis();
+        this.maxSize = maxSize;
+        this.overflow = OverflowPolicy.valueOf(overflow.trim().toUpperCase().replace('-', '_'));
+
+        Gauge.builder("mfa.pending.attempts", size, AtomicInteger::get)
+                .description("Live pending MFA attempts")
+                .register(meters);
+        Gauge.builder("mfa.pending.states", stateToAttempt, Map::size)
+                .description("Live TOTP browser-flow state bindings")
+                .register(meters);
+        this.expired = Counter.builder("mfa.pending.evictions").tag("reason", "expired").register(meters);
+        this.overflowEvicted = Counter.builder("mfa.pending.evictions").tag("reason", "overflow").register(meters);
+        this.exhausted = Counter.builder("mfa.pending.evictions").tag("reason", "exhausted").register(meters);
+        this.rejected = Counter.builder("mfa.pending.rejections")
+                .description("Attempts refused because the store was full")
+                .register(meters);
+        this.ageAtRemoval = DistributionSummary.builder("mfa.pending.attempt.age")
+                .description("Age of attempts when consumed or evicted")
+                .baseUnit("seconds")
+                .publishPercentileHistogram()
+                .register(meters);
+    }
+
+    @Override
+    public String create(String realm, String username, String userId, String password) {
+        while (!reserve()) {
+            if (overflow == OverflowPolicy.REJECT || !evictOldest()) {
+                rejected.increment();
+                throw new CapacityExceededException(maxSize);
+            }
+        }
+
+        UUID id = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        attempts.put(id, new Entry(intern(realm), intern(username), intern(userId), secrets.seal(password), now));
+        buckets.computeIfAbsent(bucketOf(now), k -> new ConcurrentLinkedQueue<>()).add(id);
+        return id.toString();
+    }
+
+    @Override
+    public Attempt get(String id) {
+        UUID key = key(id);
+        Entry e = key == null ? null : live(key);
+        if (e == null) return null;
+        synchronized (e) {
+            return Attempt.builder()
+                    .realm(e.realm)
+                    .username(e.username)
+                    .userId(e.userId)
+                    .sealedPassword(e.sealedPassword)
+                    .createdAt(Instant.ofEpochMilli(e.createdAt))
+                    .failedChecks(e.failedChecks)
+                    .build();
+        }
+    }
+
+    @Override
+    public String password(Attempt a) {
+        return secrets.open(a.getSealedPassword());
+    }
+
+    @Override
+    public void remove(String id) {
+        UUID key = key(id);
+        Entry e = key == null ? null : attempts.remove(key);
+        if (e != null) released(e);
+    }
+
+    @Override
+    public void setEmailOtp(String id, String code, Instant expiry) {
+        UUID key = key(id);
+        Entry e = key == null ? null : live(key);
+        if (e != null) {
+            long tag = secrets.otpTag(id, code);
+            synchronized (e) {
+                e.otpTag = tag;
+                e.otpExpiresAt = expiry.toEpochMilli();
+            }
+        }
+    }
+
+    @Override
+    public boolean consumeValidEmailOtp(String id, String code) {
+        UUID key = key(id);
+        Entry e = key == null ? null : live(key);
+        if (e == null || code == null) return false;
+        long tag = secrets.otpTag(id, code);
+        synchronized (e) {
+            if (e.otpTag == 0 || System.currentTimeMillis() > e.otpExpiresAt) return false;
+            // XOR of two longs: no data-dependent early exit
+            boolean ok = (e.otpTag ^ tag) == 0;
+            if (ok) {
+                e.otpTag = 0;
+                e.otpExpiresAt = 0;
+            }
+            return ok;
+        }
+    }
+
+    @Override
+    public boolean reserveGuess(String id, String userId) {
+        UUID key = key(id);
+        Entry e = key == null ? null : live(key);
+        if (e == null) return false;
+        boolean spent;
+        synchronized (e) {
+            spent = lockout.attemptExhausted(e.failedChecks);
+            if (!spent) e.failedChecks++;
+        }
+        if (spent) {
+            if (attempts.remove(key, e)) {
+                exhausted.increment();
+                released(e);
+            }
+            return false;
+        }
+        try {
+            userLockouts.reserve(userId);
+        } catch (LockedOutException locked) {
+            refund(e);
+            throw locked;
+        }
+        return true;
+    }
+
+    @Override
+    public void refundGuess(String id, String userId) {
+        UUID key = key(id);
+        Entry e = key == null ? null : attempts.get(key);
+        if (e != null) refund(e);
+        userLockouts.refund(userId);
+    }
+
+    @Override
+    public void clearFailures(String userId) {
+        userLockouts.clear(userId);
+    }
+
+    @Override
+    public void bindState(String state, String attemptId) {
+        stateToAttempt.put(state, new StateBinding(attemptId, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void clearState(String state) {
+        stateToAttempt.remove(state);
+    }
+
+    @Override
+    public void revoke(String key, long ttlMillis) {
+        revocations.revoke(key, ttlMillis);
+    }
+
+    @Override
+    public boolean revokeOnce(String key, long ttlMillis) {
+        return revocations.revokeOnce(key, ttlMillis);
+    }
+
+    @Override
+    public long revokedAt(String key) {
+        return revocations.revokedAt(key);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Drops every bucket whose newest possible attempt is past the TTL. Ids that were already
+     * consumed are simply skipped, so the cost is proportional to what was created in the
+     * expired window, not to the live set.
+     */
+    @Scheduled(fixedDelayString = "${mfa.attempt.sweep-interval-ms:10000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        long lastExpiredBucket = bucketOf(now - ttlMillis) - 1;
+
+        Map.Entry<Long, Queue<UUID>> e;
+        while ((e = buckets.firstEntry()) != null && e.getKey() <= lastExpiredBucket) {
+            buckets.remove(e.getKey(), e.getValue());
+            for (UUID id : e.getValue()) {
+                Entry a = attempts.remove(id);
+                if (a != null) {
+                    expired.increment();
+                    released(a);
+                }
+            }
+        }
+
+        // State bindings are only created by the TOTP browser flow, so a full scan stays cheap
+        stateToAttempt.entrySet().removeIf(s -> now - s.getValue().createdAtMillis() > ttlMillis);
+        userLockouts.sweep(now);
+        revocations.sweep(now);
+    }
+
+    private boolean evictOldest() {
+        long currentBucket = bucketOf(System.currentTimeMillis());
+        for (Map.Entry<Long, Queue<UUID>> e : buckets.entrySet()) {
+            UUID id;
+            while ((id = e.getValue().poll()) != null) {
+                Entry a = attempts.remove(id);
+                if (a != null) {
+                    overflowEvicted.increment();
+                    released(a);
+                    return true;
+                }
+            }
+            // The current bucket may still be receiving ids; leave it for the sweeper
+            if (e.getKey() < currentBucket) buckets.remove(e.getKey(), e.getValue());
+        }
+        return false;
+    }
+
+    /** The entry, or null if absent or expired (an expired one is removed). */
+    private Entry live(UUID key) {
+        Entry e = attempts.get(key);
+        if (e != null && System.currentTimeMillis() - e.createdAt > ttlMillis) {
+            if (attempts.remove(key, e)) {
+                expired.increment();
+                released(e);
+            }
+            return null;
+        }
+        return e;
+    }
+
+    private static UUID key(String id) {
+        if (id == null || id.length() != 36) return null;
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String intern(String s) {
+        return s == null ? null : s.intern();
+    }
+
+    private long bucketOf(long epochMillis) {
+        return epochMillis / bucketMillis;
+    }
+
+    /** Takes one slot unless the store is at {@code maxSize}. */
+    private boolean reserve() {
+        int n;
+        do {
+            n = size.get();
+            if (n >= maxSize) return false;
+        } while (!size.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    private static void refund(Entry e) {
+        synchronized (e) {
+            if (e.failedChecks > 0) e.failedChecks--;
+        }
+    }
+
+    /** Called exactly once per entry, by whoever removed it from {@code attempts}. */
+    private void released(Entry e) {
+        size.decrementAndGet();
+        ageAtRemoval.record((System.currentTimeMillis() - e.createdAt) / 1000.0);
+    }
+}
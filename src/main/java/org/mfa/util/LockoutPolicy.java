@@ -0,0 +1,65 @@
+package org.mfa.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits for failed OTP/TOTP checks, shared by the {@link PendingMfaStore} implementations.
+ * An attempt is discarded after {@code mfa.guard.attempt.max-failures} wrong codes (the user has to
+ * log in again). Per user, the first {@code mfa.guard.user.free-failures} failures within
+ * {@code mfa.guard.user.window-minutes} are free; each further one locks the user for
+ * {@code base-lockout-seconds * 2^n}, capped at {@code max-lockout-seconds}.
+ */
+@Component
+public class LockoutPolicy {
+
+    private final int attemptMaxFailures;
+    private final int userFreeFailures;
+    private final long windowMillis;
+    private final long baseLockoutMillis;
+    private final long maxLockoutMillis;
+
+    public LockoutPolicy(@Value("${mfa.guard.attempt.max-failures:5}") int attemptMaxFailures,
+                         @Value("${mfa.guard.user.free-failures:5}") int userFreeFailures,
+                         @Value("${mfa.guard.user.window-minutes:60}") long windowMinutes,
+                         @Value("${mfa.guard.base-lockout-seconds:30}") long baseLockoutSeconds,
+                         @Value("${mfa.guard.max-lockout-seconds:3600}") long maxLockoutSeconds) {
+        this.attemptMaxFailures = attemptMaxFailures;
+        this.userFreeFailures = userFreeFailures;
+        this.windowMillis = windowMinutes * 60_000;
+        this.baseLockoutMillis = baseLockoutSeconds * 1000;
+        this.maxLockoutMillis = maxLockoutSeconds * 1000;
+    }
+
+    public boolean attemptExhausted(long attemptFailures) {
+        return attemptFailures >= attemptMaxFailures;
+    }
+
+    /** Lockout to apply after the user's {@code userFailures}-th failure in the window; 0 for none. */
+    public long lockoutMillis(long userFailures) {
+        long over = userFailures - userFreeFailures;
+        if (over <= 0) return 0;
+        int shift = (int) Math.min(over - 1, 30);
+        return Math.min(maxLockoutMillis, baseLockoutMillis << shift);
+    }
+
+    public long windowMillis() {
+        return windowMillis;
+    }
+
+    public int attemptMaxFailures() {
+        return attemptMaxFailures;
+    }
+
+    public int userFreeFailures() {
+        return userFreeFailures;
+    }
+
+    public long baseLockoutMillis() {
+        return baseLockoutMillis;
+    }
+
+    public long maxLockoutMillis() {
+        return maxLockoutMillis;
+    }
+}
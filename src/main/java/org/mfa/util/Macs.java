@@ -0,0 +1,33 @@
+package org.mfa.util;
+
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Keyed {@link Mac} prototypes. A {@code Mac} is not thread-safe, so callers keep one keyed instance
+ * and {@link #copy} it per use: a clone skips provider lookup and key setup, and unlike a
+ * {@code ThreadLocal} it does not leave a {@code Mac} behind on every (virtual) thread.
+ */
+public final class Macs {
+
+    private Macs() {}
+
+    public static Mac keyed(String algorithm, Key key) {
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Mac copy(Mac prototype) {
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.mfa.dto.Attempt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-node {@link PendingMfaStore} that keeps attempts in fixed-size slots of one direct
+ * {@link ByteBuffer} ({@code mfa.store.type=offheap}), so a login flood does not turn into
+ * millions of small heap objects.
+ * <p>
+ * The attempt id encodes its slot: 96 random bits plus the slot number, so lookups are a direct
+ * index followed by a full id comparison, with no probing or tombstones. Free slots sit on a
+ * lock-free stack. Slot layout (bytes):
+ * <pre>
+ *   0 state  4 seq  8 id-hi  16 id-lo  24 createdAt  32 otpTag  40 otpExpiresAt  48 failedChecks
+ *  52 payload length  56 payload ({@link AttemptCodec}: realm, username, userId, sealed password)
+ * </pre>
+ * Writers bump {@code seq} to odd while they change a slot and readers retry until they see an
+ * even, unchanged {@code seq} (yielding now and then, in case the writer was descheduled).
+ * Consuming the email OTP is a CAS of the slot's tag to 0; taking a guess is a CAS that raises
+ * {@code failedChecks} only while it is below the limit. A clock hand sweeps
+ * {@code mfa.store.offheap.sweep-batch} slots per tick and frees expired ones.
+ * <p>
+ * Capacity is {@code mfa.store.offheap.slots} of {@code mfa.store.offheap.slot-bytes}; a full store
+ * rejects new attempts (no evict-oldest). An attempt whose payload does not fit a slot (very long
+ * username or password) is refused with {@link AttemptTooLargeException}, answered as a 400. Per-user lockouts and TOTP state bindings stay on heap.
+ */
+@Component
+@ConditionalOnProperty(name = "mfa.store.type", havingValue = "offheap")
+public class OffHeapPendingMfaStore implements PendingMfaStore {
+
+    private static final int EMPTY = 0, LIVE = 1, BUSY = 2;
+    private static final int STATE = 0, SEQ = 4, ID_HI = 8, ID_LO = 16, CREATED_AT = 24,
+            OTP_TAG = 32, OTP_EXPIRES_AT = 40, FAILED_CHECKS = 48, PAYLOAD_LEN = 52, PAYLOAD = 56;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ByteBuffer slots;
+    private final int slotCount;
+    private final int slotBytes;
+    private final long ttlMillis;
+    private final int sweepBatch;
+
+    /** Treiber stack of free slots: next[i] is the slot below i; head packs (version << 32 | slot + 1). */
+    private final AtomicIntegerArray next;
+    private final AtomicLong freeHead = new AtomicLong();
+    private final AtomicInteger live = new AtomicInteger();
+    private int clockHand;
+
+    private record StateBinding(String attemptId, long createdAtMillis) {}
+
+    private final Map<String, StateBinding> stateToAttempt = new ConcurrentHashMap<>();
+    private final LockoutPolicy lockout;
+    private final UserLockouts userLockouts;
+    private final Revocations revocations = new Revocations();
+    private final AttemptSecrets secrets;
+
+    private final Counter expired;
+    private final Counter exhausted;
+    private final Counter rejected;
+
+    public OffHeapPendingMfaStore(@Value("${mfa.attempt.ttl-seconds:600}") long ttlSeconds,
+                                  @Value("${mfa.store.offheap.slots:100000}") int slotCount,
+                                  @Value("${mfa.store.offheap.slot-bytes:512}") int slotBytes,
+                                  @Value("${mfa.store.offheap.sweep-batch:65536}") int sweepBatch,
+                                  LockoutPolicy lockout,
+                                  AttemptSecrets secrets,
+                                  MeterRegistry meters) {
+        int aligned = (Math.max(slotBytes, PAYLOAD + 64) + 7) & ~7;
+        if ((long) aligned * slotCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("mfa.store.offheap.slots * slot-bytes must stay below 2 GiB");
+        }
+        this.slotCount = slotCount;
+        this.slotBytes = aligned;
+        this.slots = ByteBuffer.allocateDirect(aligned * slotCount).order(ByteOrder.nativeOrder());
+        this.ttlMillis = Duration.ofSeconds(ttlSeconds).toMillis();
+        this.sweepBatch = Math.max(1, sweepBatch);
+        this.lockout = lockout;
+        this.userLockouts = new UserLockouts(lockout);
+        this.secrets = secrets;
+
+        this.next = new AtomicIntegerArray(slotCount);
+        for (int i = slotCount - 1; i >= 0; i--) push(i);
+
+        Gauge.builder("mfa.pending.attempts", live, AtomicInteger::get)
+                .description("Live pending MFA attempts")
+                .register(meters);
+        Gauge.builder("mfa.pending.states", stateToAttempt, Map::size)
+                .description("Live TOTP browser-flow state bindings")
+                .register(meters);
+        this.expired = Counter.builder("mfa.pending.evictions").tag("reason", "expired").register(meters);
+        this.exhausted = Counter.builder("mfa.pending.evictions").tag("reason", "exhausted").register(meters);
+        this.rejected = Counter.builder("mfa.pending.rejections")
+                .description("Attempts refused because the store was full")
+                .register(meters);
+    }
+
+    @Override
+    public String create(String realm, String username, String userId, String password) {
+        byte[] payload = AttemptCodec.encode(Attempt.builder()
+                .realm(realm)
+                .username(username)
+                .userId(userId)
+                .sealedPassword(secrets.seal(password))
+                .build());
+        if (payload.length > slotBytes - PAYLOAD) {
+            throw new AttemptTooLargeException(payload.length, slotBytes - PAYLOAD);
+        }
+
+        int slot = pop();
+        if (slot < 0) {
+            rejected.increment();
+            throw new CapacityExceededException(slotCount);
+        }
+        long hi = RANDOM.nextLong();
+        long lo = (RANDOM.nextLong() & 0xFFFF_FFFF_0000_0000L) | slot;
+        int base = base(slot);
+
+        INT.setVolatile(slots, base + STATE, BUSY);
+        beginWrite(base);
+        LONG.set(slots, base + ID_HI, hi);
+        LONG.set(slots, base + ID_LO, lo);
+        LONG.set(slots, base + CREATED_AT, System.currentTimeMillis());
+        LONG.set(slots, base + OTP_TAG, 0L);
+        LONG.set(slots, base + OTP_EXPIRES_AT, 0L);
+        INT.set(slots, base + FAILED_CHECKS, 0);
+        INT.set(slots, base + PAYLOAD_LEN, payload.length);
+        slots.put(base + PAYLOAD, payload);
+        endWrite(base);
+        INT.setVolatile(slots, base + STATE, LIVE);
+
+        live.incrementAndGet();
+        return new UUID(hi, lo).toString();
+    }
+
+    @Override
+    public Attempt get(String id) {
+        UUID key = key(id);
+        if (key == null) return null;
+        int base = base(slotOf(key));
+
+        // Writers never block inside a write, so retry until a read sees no write in between
+        for (int spins = 1; ; spins++) {
+            int seq = (int) INT.getVolatile(slots, base + SEQ);
+            if ((seq & 1) != 0) {
+                if (spins % SPINS_BEFORE_YIELD == 0) Thread.yield();
+                else Thread.onSpinWait();
+                continue;
+            }
+            if (!matches(base, key)) return null;
+            long createdAt = (long) LONG.get(slots, base + CREATED_AT);
+            int failed = (int) INT.getVolatile(slots, base + FAILED_CHECKS);
+            int len = (int) INT.get(slots, base + PAYLOAD_LEN);
+            byte[] payload = new byte[Math.max(0, Math.min(len, slotBytes - PAYLOAD))];
+            slots.get(base + PAYLOAD, payload);
+            if ((int) INT.getVolatile(slots, base + SEQ) != seq) continue;
+
+            if (System.currentTimeMillis() - createdAt > ttlMillis) {
+                if (free(base, key)) expired.increment();
+                return null;
+            }
+            Attempt a = AttemptCodec.decode(payload);
+            a.setCreatedAt(Instant.ofEpochMilli(createdAt));
+            a.setFailedChecks(failed);
+            return a;
+        }
+    }
+
+    @Override
+    public String password(Attempt a) {
+        return secrets.open(a.getSealedPassword());
+    }
+
+    @Override
+    public void remove(String id) {
+        UUID key = key(id);
+        if (key != null) free(base(slotOf(key)), key);
+    }
+
+    @Override
+    public void setEmailOtp(String id, String code, Instant expiry) {
+        UUID key = key(id);
+        if (key == null) return;
+        int base = base(slotOf(key));
+        if (!matches(base, key)) return;
+        // A tag written into a slot that was just reused is harmless: it is bound to the old id
+        LONG.setVolatile(slots, base + OTP_EXPIRES_AT, expiry.toEpochMilli());
+        LONG.setVolatile(slots, base + OTP_TAG, secrets.otpTag(id, code));
+    }
+
+    @Override
+    public boolean consumeValidEmailOtp(String id, String code) {
+        UUID key = key(id);
+        if (key == null || code == null) return false;
+        int base = base(slotOf(key));
+        if (!matches(base, key)) return false;
+        if (System.currentTimeMillis() > (long) LONG.getVolatile(slots, base + OTP_EXPIRES_AT)) return false;
+        long tag = secrets.otpTag(id, code);
+        // Succeeds only if the stored tag equals ours, and clears it so the code is single-use
+        return LONG.compareAndSet(slots, base + OTP_TAG, tag, 0L);
+    }
+
+    @Override
+    public boolean reserveGuess(String id, String userId) {
+        UUID key = key(id);
+        if (key == null) return false;
+        int base = base(slotOf(key));
+        while (true) {
+            if (!matches(base, key)) return false;
+            int failed = (int) INT.getVolatile(slots, base + FAILED_CHECKS);
+            if (lockout.attemptExhausted(failed)) {
+                if (free(base, key)) exhausted.increment();
+                return false;
+            }
+            if (INT.compareAndSet(slots, base + FAILED_CHECKS, failed, failed + 1)) break;
+        }
+        // The slot may have been freed and reused between the id check and the CAS
+        if (!idEquals(base, key)) {
+            INT.getAndAdd(slots, base + FAILED_CHECKS, -1);
+            return false;
+        }
+        try {
+            userLockouts.reserve(userId);
+        } catch (LockedOutException locked) {
+            refund(base, key);
+            throw locked;
+        }
+        return true;
+    }
+
+    @Override
+    public void refundGuess(String id, String userId) {
+        UUID key = key(id);
+        if (key != null) refund(base(slotOf(key)), key);
+        userLockouts.refund(userId);
+    }
+
+    @Override
+    public void clearFailures(String userId) {
+        userLockouts.clear(userId);
+    }
+
+    @Override
+    public void bindState(String state, String attemptId) {
+        stateToAttempt.put(state, new StateBinding(attemptId, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void clearState(String state) {
+        stateToAttempt.remove(state);
+    }
+
+    @Override
+    public void revoke(String key, long ttlMillis) {
+        revocations.revoke(key, ttlMillis);
+    }
+
+    @Override
+    public boolean revokeOnce(String key, long ttlMillis) {
+        return revocations.revokeOnce(key, ttlMillis);
+    }
+
+    @Override
+    public long revokedAt(String key) {
+        return revocations.revokedAt(key);
+    }
+
+    /** Advances the clock hand over the next batch of slots and frees expired attempts. */
+    @Scheduled(fixedDelayString = "${mfa.attempt.sweep-interval-ms:10000}")
+    public synchronized void sweep() {
+        long now = System.currentTimeMillis();
+        int batch = Math.min(sweepBatch, slotCount);
+        for (int i = 0; i < batch; i++) {
+            int base = base(clockHand);
+            clockHand = clockHand + 1 == slotCount ? 0 : clockHand + 1;
+            if ((int) INT.getVolatile(slots, base + STATE) != LIVE) continue;
+            if (now - (long) LONG.get(slots, base + CREATED_AT) <= ttlMillis) continue;
+            UUID key = new UUID((long) LONG.get(slots, base + ID_HI), (long) LONG.get(slots, base + ID_LO));
+            if (free(base, key)) expired.increment();
+        }
+        stateToAttempt.entrySet().removeIf(s -> now - s.getValue().createdAtMillis() > ttlMillis);
+        userLockouts.sweep(now);
+        revocations.sweep(now);
+    }
+
+    public int size() {
+        return live.get();
+    }
+
+    /** Frees the slot if it still holds {@code key}; true if this call freed it. */
+    private boolean free(int base, UUID key) {
+        if (!matches(base, key)) return false;
+        if (!INT.compareAndSet(slots, base + STATE, LIVE, BUSY)) return false;
+        if (!idEquals(base, key)) {
+            INT.setVolatile(slots, base + STATE, LIVE);
+            return false;
+        }
+        beginWrite(base);
+        LONG.set(slots, base + ID_HI, 0L);
+        LONG.set(slots, base + ID_LO, 0L);
+        LONG.set(slots, base + OTP_TAG, 0L);
+        endWrite(base);
+        INT.setVolatile(slots, base + STATE, EMPTY);
+        live.decrementAndGet();
+        push(slotOf(key));
+        return true;
+    }
+
+    private void refund(int base, UUID key) {
+        int failed;
+        do {
+            if (!matches(base, key)) return;
+            failed = (int) INT.getVolatile(slots, base + FAILED_CHECKS);
+            if (failed == 0) return;
+        } while (!INT.compareAndSet(slots, base + FAILED_CHECKS, failed, failed - 1));
+    }
+
+    private boolean matches(int base, UUID key) {
+        return (int) INT.getVolatile(slots, base + STATE) == LIVE && idEquals(base, key);
+    }
+
+    private boolean idEquals(int base, UUID key) {
+        return (long) LONG.getVolatile(slots, base + ID_LO) == key.getLeastSignificantBits()
+                & (long) LONG.getVolatile(slots, base + ID_HI) == key.getMostSignificantBits();
+    }
+
+    private void beginWrite(int base) {
+        INT.getAndAdd(slots, base + SEQ, 1);
+    }
+
+    private void endWrite(int base) {
+        INT.getAndAdd(slots, base + SEQ, 1);
+    }
+
+    private int pop() {
+        while (true) {
+            long head = freeHead.get();
+            int slot = (int) head - 1;
+            if (slot < 0) return -1;
+            long newHead = ((head >>> 32) + 1) << 32 | (next.get(slot) + 1L);
+            if (freeHead.compareAndSet(head, newHead)) return slot;
+        }
+    }
+
+    private void push(int slot) {
+        while (true) {
+            long head = freeHead.get();
+            next.set(slot, (int) head - 1);
+            long newHead = ((head >>> 32) + 1) << 32 | (slot + 1L);
+            if (freeHead.compareAndSet(head, newHead)) return;
+        }
+    }
+
+    private int slotOf(UUID key) {
+        return (int) key.getLeastSignificantBits();
+    }
+
+    private int base(int slot) {
+        return slot * slotBytes;
+    }
+
+    /** Parses the id and rejects ones whose slot number is out of range. */
+    private UUID key(String id) {
+        if (id == null || id.length() != 36) return null;
+        try {
+            UUID key = UUID.fromString(id);
+            int slot = slotOf(key);
+            return slot >= 0 && slot < slotCount ? key : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
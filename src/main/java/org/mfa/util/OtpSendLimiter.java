@@ -0,0 +1,262 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Throttles OTP sends (SMS and email) per login attempt, per user and per client IP, before any
+ * outbound call is made.
+ * <p>
+ * A limit is either a GCRA token bucket ({@link Rate}: one "theoretical arrival time", advanced with
+ * CAS like {@link TenantRateLimiter}) or a hard cap per fixed window ({@link Window}: window end and
+ * count). All limits of one key live in a single {@code long[]} swapped atomically, so a rejected
+ * send never consumes from the other limits of that key. Across keys
+ * (attempt, user, IP) a send checks all three and then takes each in turn; this is not atomic, so
+ * when concurrent sends race for the same keys one of them can be rejected after already charging
+ * the keys taken before it. That only ever errs toward stricter limiting.
+ * <p>
+ * Keys whose buckets have fully refilled and whose windows have closed are equivalent to absent ones
+ * and are swept. The map is
+ * capped at {@code otp.limit.max-keys}; when a new key finds it full, refilled keys are swept
+ * inline (at most once per second) and, if that frees nothing, the send is refused (fail closed).
+ * <p>
+ * Policies: attempt = {@code cooldown-seconds} between sends and at most {@code attempt.max-sends} in
+ * total (the window is {@code mfa.attempt.ttl-seconds} from the first send, so it outlives the attempt);
+ * user and IP = {@code burst} sends, refilled at {@code per-hour}, plus at most {@code per-day} sends
+ * per 24h window, which opens with the first send after the previous window closed.
+ */
+@Component
+public class OtpSendLimiter {
+
+    public static class RateLimitedException extends RuntimeException {
+        private final long retryAfterSeconds;
+        public RateLimitedException(long retryAfterSeconds) {
+            super("OTP send rate limited");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    /** One limit of a key; owns {@link #slots} consecutive entries of the key's state array. */
+    private interface Limit {
+        int slots();
+
+        /** Nanoseconds until this limit allows a send; 0 if it allows one now. */
+        long waitNanos(long[] state, int at, long now);
+
+        /** Charges one send to {@code state}, a copy that is then swapped in. */
+        void take(long[] state, int at, long now);
+
+        /** True once the slots are equivalent to a fresh key's. */
+        boolean idle(long[] state, int at, long now);
+    }
+
+    /** GCRA: {@code burst} sends at once, then {@code count} per period; slot = theoretical arrival time. */
+    private record Rate(long intervalNanos, long toleranceNanos) implements Limit {
+        static Rate of(long count, long periodSeconds, long burst) {
+            long interval = TimeUnit.SECONDS.toNanos(periodSeconds) / Math.max(1, count);
+            return new Rate(interval, interval * (Math.max(1, burst) - 1));
+        }
+
+        public int slots() { return 1; }
+
+        public long waitNanos(long[] state, int at, long now) {
+            return Math.max(0, state[at] - toleranceNanos - now);
+        }
+
+        public void take(long[] state, int at, long now) {
+            state[at] = Math.max(state[at], now) + intervalNanos;
+        }
+
+        public boolean idle(long[] state, int at, long now) {
+            return state[at] <= now;
+        }
+    }
+
+    /** At most {@code max} sends per window of {@code periodNanos}; slots = window end, sends in it. */
+    private record Window(long max, long periodNanos) implements Limit {
+        static Window of(long max, long periodSeconds) {
+            return new Window(max, TimeUnit.SECONDS.toNanos(periodSeconds));
+        }
+
+        public int slots() { return 2; }
+
+        public long waitNanos(long[] state, int at, long now) {
+            return state[at] > now && state[at + 1] >= max ? state[at] - now : 0;
+        }
+
+        public void take(long[] state, int at, long now) {
+            if (state[at] <= now) {
+                state[at] = now + periodNanos;
+                state[at + 1] = 1;
+            } else {
+                state[at + 1]++;
+            }
+        }
+
+        public boolean idle(long[] state, int at, long now) {
+            return state[at] <= now;
+        }
+    }
+
+    private final Map<String, AtomicReference<long[]>> buckets = new ConcurrentHashMap<>();
+    private final List<Limit> attemptLimits = new ArrayList<>();
+    private final List<Limit> userLimits = new ArrayList<>();
+    private final List<Limit> ipLimits = new ArrayList<>();
+    private final int maxKeys;
+    private final long origin = System.nanoTime();
+
+    private static final long INLINE_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long FULL_RETRY_SECONDS = 60;
+    private final AtomicLong lastInlineSweep = new AtomicLong(-INLINE_SWEEP_INTERVAL_NANOS);
+
+    private final Counter rejected;
+    private final Counter full;
+
+    public OtpSendLimiter(@Value("${otp.limit.cooldown-seconds:30}") long cooldownSeconds,
+                          @Value("${otp.limit.attempt.max-sends:5}") long attemptMaxSends,
+                          @Value("${mfa.attempt.ttl-seconds:600}") long attemptTtlSeconds,
+                          @Value("${otp.limit.user.burst:5}") long userBurst,
+                          @Value("${otp.limit.user.per-hour:10}") long userPerHour,
+                          @Value("${otp.limit.user.per-day:30}") long userPerDay,
+                          @Value("${otp.limit.ip.burst:20}") long ipBurst,
+                          @Value("${otp.limit.ip.per-hour:100}") long ipPerHour,
+                          @Value("${otp.limit.ip.per-day:500}") long ipPerDay,
+                          @Value("${otp.limit.max-keys:200000}") int maxKeys,
+                          MeterRegistry meters) {
+        if (cooldownSeconds > 0) attemptLimits.add(Rate.of(1, cooldownSeconds, 1));
+        if (attemptMaxSends > 0) attemptLimits.add(Window.of(attemptMaxSends, attemptTtlSeconds));
+        if (userPerHour > 0) userLimits.add(Rate.of(userPerHour, 3600, userBurst));
+        if (userPerDay > 0) userLimits.add(Window.of(userPerDay, 86400));
+        if (ipPerHour > 0) ipLimits.add(Rate.of(ipPerHour, 3600, ipBurst));
+        if (ipPerDay > 0) ipLimits.add(Window.of(ipPerDay, 86400));
+        this.maxKeys = maxKeys;
+        this.rejected = Counter.builder("otp.limit.rejected").register(meters);
+        this.full = Counter.builder("otp.limit.full")
+                .description("Sends refused because the limiter map was full")
+                .register(meters);
+        Gauge.builder("otp.limit.keys", buckets, Map::size).register(meters);
+    }
+
+    /**
+     * Reserves one send for {@code channel} ("sms", "email").
+     *
+     * @throws RateLimitedException with the seconds until a send would be allowed
+     */
+    public void acquire(String channel, String attemptId, String userId, String clientIp) {
+        long now = System.nanoTime() - origin;
+        AtomicReference<long[]> attempt = bucket("a:" + channel + ":" + attemptId, attemptLimits, now);
+        AtomicReference<long[]> user = bucket("u:" + channel + ":" + userId, userLimits, now);
+        AtomicReference<long[]> ip = bucket("i:" + channel + ":" + clientIp, ipLimits, now);
+
+        // Check every dimension first so a rejection by one does not charge the others
+        long wait = Math.max(Math.max(waitNanos(attempt, attemptLimits, now), waitNanos(user, userLimits, now)),
+                waitNanos(ip, ipLimits, now));
+        if (wait == 0) wait = take(attempt, attemptLimits, now);
+        if (wait == 0) wait = take(user, userLimits, now);
+        if (wait == 0) wait = take(ip, ipLimits, now);
+        if (wait > 0) {
+            rejected.increment();
+            throw new RateLimitedException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999)));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${otp.limit.sweep-interval-ms:60000}")
+    public void sweep() {
+        sweep(System.nanoTime() - origin);
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweep(long now) {
+        buckets.entrySet().removeIf(e -> idle(e.getValue().get(), limitsOf(e.getKey()), now));
+    }
+
+    private List<Limit> limitsOf(String key) {
+        return switch (key.charAt(0)) {
+            case 'a' -> attemptLimits;
+            case 'u' -> userLimits;
+            default -> ipLimits;
+        };
+    }
+
+    /**
+     * The key's bucket, created if needed; null when the dimension has no limits.
+     *
+     * @throws RateLimitedException when the map is full even after sweeping refilled keys
+     */
+    private AtomicReference<long[]> bucket(String key, List<Limit> limits, long now) {
+        if (limits.isEmpty()) return null;
+        AtomicReference<long[]> ref = buckets.get(key);
+        if (ref != null) return ref;
+        if (buckets.size() >= maxKeys) {
+            long last = lastInlineSweep.get();
+            if (now - last >= INLINE_SWEEP_INTERVAL_NANOS && lastInlineSweep.compareAndSet(last, now)) sweep(now);
+            if (buckets.size() >= maxKeys) {
+                full.increment();
+                rejected.increment();
+                throw new RateLimitedException(FULL_RETRY_SECONDS);
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> new AtomicReference<>(new long[slots(limits)]));
+    }
+
+    private static int slots(List<Limit> limits) {
+        int slots = 0;
+        for (Limit l : limits) slots += l.slots();
+        return slots;
+    }
+
+    private static long waitNanos(AtomicReference<long[]> ref, List<Limit> limits, long now) {
+        return ref == null ? 0 : waitNanos(ref.get(), limits, now);
+    }
+
+    private static long take(AtomicReference<long[]> ref, List<Limit> limits, long now) {
+        if (ref == null) return 0;
+        while (true) {
+            long[] current = ref.get();
+            long wait = waitNanos(current, limits, now);
+            if (wait > 0) return wait;
+            long[] next = current.clone();
+            int at = 0;
+            for (Limit l : limits) {
+                l.take(next, at, now);
+                at += l.slots();
+            }
+            if (ref.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    private static long waitNanos(long[] state, List<Limit> limits, long now) {
+        long wait = 0;
+        int at = 0;
+        for (Limit l : limits) {
+            wait = Math.max(wait, l.waitNanos(state, at, now));
+            at += l.slots();
+        }
+        return wait;
+    }
+
+    private static boolean idle(long[] state, List<Limit> limits, long now) {
+        int at = 0;
+        for (Limit l : limits) {
+            if (!l.idle(state, at, now)) return false;
+            at += l.slots();
+        }
+        return true;
+    }
+}
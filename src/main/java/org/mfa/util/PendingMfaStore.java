@@ -1,64 +1,88 @@
 package org.mfa.util;
 
 import org.mfa.dto.Attempt;
-import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-
-@Component
-public class PendingMfaStore {
-
-    private final Map<String, Attempt> attempts = new ConcurrentHashMap<>();
-    private final Map<String, String> stateToAttempt = new ConcurrentHashMap<>();
-
-    public String create(String realm, String username, String userId, String password) {
-        String id = UUID.randomUUID().toString();
-        attempts.put(id, Attempt.builder()
-                .realm(realm)
-                .username(username)
-                .userId(userId)
-                .password(password)
-                .createdAt(Instant.now())
-                .build());
-        return id;
-    }
 
-    public Attempt get(String id) {
-        return attempts.get(id);
-    }
+/**
+ * Pending login attempts between /auth/login and the MFA step.
+ * Selected with {@code mfa.store.type}: {@code memory} (default, single node), {@code offheap}
+ * (single node, slots in a direct buffer) or {@code redis} (shared).
+ * <p>
+ * {@link #get} returns a snapshot; callers must go through the store to change an attempt.
+ * Code checks are budgeted here per attempt and per user (see {@link LockoutPolicy}): a check first
+ * takes a guess with {@link #reserveGuess}, which counts as a failure until the code proves right, so
+ * concurrent guesses cannot get past the limits between a check and its outcome.
+ */
+public interface PendingMfaStore {
 
-    public void remove(String id) {
-        attempts.remove(id);
+    class CapacityExceededException extends RuntimeException {
+        public CapacityExceededException(int maxSize) {
+            super("Pending MFA store is full (" + maxSize + " attempts)");
+        }
     }
 
-    public void setEmailOtp(String id, String code, Instant expiry) {
-        Attempt a = attempts.get(id);
-        if (a != null) {
-            a.setEmailOtp(code);
-            a.setEmailOtpExpiry(expiry);
+    /** The attempt (realm, username, user id, sealed password) exceeds what the store can hold per entry. */
+    class AttemptTooLargeException extends RuntimeException {
+        public AttemptTooLargeException(int bytes, int maxBytes) {
+            super("Attempt needs " + bytes + " bytes, the store holds at most " + maxBytes);
         }
     }
 
-    public boolean consumeValidEmailOtp(String id, String code) {
-        Attempt a = attempts.get(id);
-        if (a == null || a.getEmailOtp() == null || a.getEmailOtpExpiry() == null) return false;
-        if (Instant.now().isAfter(a.getEmailOtpExpiry())) return false;
-        boolean ok = a.getEmailOtp().equals(code);
-        if (ok) {
-            a.setEmailOtp(null);
-            a.setEmailOtpExpiry(null);
+    class LockedOutException extends RuntimeException {
+        private final long retryAfterSeconds;
+        public LockedOutException(long retryAfterMillis) {
+            super("Too many failed verifications");
+            this.retryAfterSeconds = Math.max(1, (retryAfterMillis + 999) / 1000);
         }
-        return ok;
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
     }
 
-    public void bindState(String state, String attemptId) {
-        stateToAttempt.put(state, attemptId);
-    }
+    String create(String realm, String username, String userId, String password);
 
-    public void clearState(String state) {
-        stateToAttempt.remove(state);
-    }
-}
\ No newline at end of file
+    Attempt get(String id);
+
+    /** Opens the sealed password of {@code a}; null if none was kept or it cannot be opened. */
+    String password(Attempt a);
+
+    void remove(String id);
+
+    void setEmailOtp(String id, String code, Instant expiry);
+
+    /** Atomically checks the code (constant time) and, if it matches and is not expired, consumes it. */
+    boolean consumeValidEmailOtp(String id, String code);
+
+    /**
+     * Takes one guess from the attempt's and the user's budget before a code is checked. Call it
+     * before any outbound call, so exhausted attempts and locked users cost none.
+     *
+     * @return false if the attempt is gone or has no guesses left (it is then discarded)
+     * @throws LockedOutException while the user is locked out; no guess is taken
+     */
+    boolean reserveGuess(String id, String userId);
+
+    /** Returns a guess whose code was never judged, e.g. because the SMS provider failed. */
+    void refundGuess(String id, String userId);
+
+    /** Returns the user's guesses and lifts any lockout after a successful verification. */
+    void clearFailures(String userId);
+
+    void bindState(String state, String attemptId);
+
+    void clearState(String state);
+
+    /**
+     * Records that {@code key} was revoked now; the marker is kept for {@code ttlMillis}. Used for
+     * remembered devices and refresh tokens, so a revocation is seen by every instance sharing the store.
+     */
+    void revoke(String key, long ttlMillis);
+
+    /**
+     * Like {@link #revoke}, but only if {@code key} is not already revoked; of concurrent callers on
+     * any instance exactly one gets true. Used to consume single-use tokens.
+     */
+    boolean revokeOnce(String key, long ttlMillis);
+
+    /** Epoch millis of the last live {@link #revoke} of {@code key}, or 0. */
+    long revokedAt(String key);
+}
@@ -0,0 +1,240 @@
+package org.mfa.util;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import jakarta.annotation.PreDestroy;
+import org.mfa.dto.Attempt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Shared {@link PendingMfaStore} so any replica can continue a login started on another one.
+ * <p>
+ * Layout (all keys carry a native TTL, nothing needs sweeping):
+ * <ul>
+ *   <li>{@code mfa:attempt:{id}}     → {@link AttemptCodec} bytes, TTL {@code mfa.attempt.ttl-seconds}</li>
+ *   <li>{@code mfa:attempt:{id}:otp} → 8-byte email OTP tag ({@link AttemptSecrets}), TTL = OTP expiry</li>
+ *   <li>{@code mfa:state:{state}}    → attempt id, TTL {@code mfa.attempt.ttl-seconds}</li>
+ *   <li>{@code mfa:attempt:{id}:fails} → guesses taken on the attempt, TTL {@code mfa.attempt.ttl-seconds}</li>
+ *   <li>{@code mfa:user:{userId}:fails} → guesses taken by the user, sliding TTL = {@link LockoutPolicy} window</li>
+ *   <li>{@code mfa:user:{userId}:lock}  → present while the user is locked out</li>
+ *   <li>{@code mfa:revoked:{key}}     → revocation time in epoch millis, TTL given by the caller</li>
+ * </ul>
+ * The OTP lives in its own key so it can be compared and deleted in one Lua call.
+ * Capacity is bounded by Redis {@code maxmemory}, not by this class. Run Redis with
+ * {@code maxmemory-policy noeviction}: every key here has a TTL, so any {@code volatile-*} or
+ * {@code allkeys-*} policy would let memory pressure evict lockouts and revocations.
+ * All replicas must share {@code mfa.attempt.secret} so they can open each other's sealed passwords;
+ * startup fails without it.
+ * Tests run against an embedded redis-server ({@code embedded-redis}, test scope); for manual
+ * multi-replica runs use {@code docker compose up redis}.
+ */
+@Component
+@ConditionalOnProperty(name = "mfa.store.type", havingValue = "redis")
+public class RedisPendingMfaStore implements PendingMfaStore {
+
+    private static final String CONSUME_IF_EQUAL =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) return 1 else return 0 end";
+
+    /**
+     * Takes a guess: returns the user's remaining lockout if locked, -1 if the attempt is gone or
+     * spent (a spent one is deleted), else counts the guess for the attempt and the user and returns 0.
+     * The lock a wrong guess would earn is taken right away, following {@link LockoutPolicy#lockoutMillis}.
+     */
+    private static final String RESERVE_GUESS =
+            "local locked = redis.call('PTTL', KEYS[5]) "
+            + "if locked > 0 then return locked end "
+            + "if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end "
+            + "if tonumber(redis.call('GET', KEYS[2]) or '0') >= tonumber(ARGV[2]) then "
+            + "  redis.call('DEL', KEYS[1], KEYS[2], KEYS[3]) return -1 "
+            + "end "
+            + "redis.call('INCR', KEYS[2]) redis.call('PEXPIRE', KEYS[2], ARGV[1]) "
+            + "local uf = redis.call('INCR', KEYS[4]) redis.call('PEXPIRE', KEYS[4], ARGV[3]) "
+            + "local over = uf - tonumber(ARGV[4]) "
+            + "if over > 0 then "
+            + "  local lock = math.min(tonumber(ARGV[6]), tonumber(ARGV[5]) * 2 ^ math.min(over - 1, 30)) "
+            + "  if lock > 0 then redis.call('SET', KEYS[5], 1, 'PX', string.format('%d', lock)) end "
+            + "end "
+            + "return 0";
+
+    /** Gives a guess back to the attempt (if it still exists) and the user; counts never go below 0. */
+    private static final String REFUND_GUESS =
+            "if redis.call('EXISTS', KEYS[1]) == 1 and tonumber(redis.call('GET', KEYS[2]) or '0') > 0 then "
+            + "  redis.call('DECR', KEYS[2]) "
+            + "end "
+            + "if tonumber(redis.call('GET', KEYS[3]) or '0') > 0 then redis.call('DECR', KEYS[3]) end "
+            + "return 0";
+
+    private final RedisClient client;
+    private final StatefulRedisConnection<String, byte[]> connection;
+    private final RedisCommands<String, byte[]> redis;
+    private final long ttlMillis;
+    private final LockoutPolicy lockout;
+    private final AttemptSecrets secrets;
+
+    public RedisPendingMfaStore(@Value("${mfa.store.redis.uri:redis://localhost:6379}") String uri,
+                                @Value("${mfa.attempt.ttl-seconds:600}") long ttlSeconds,
+                                LockoutPolicy lockout,
+                                AttemptSecrets secrets) {
+        this.lockout = lockout;
+        this.secrets = secrets;
+        if (secrets.ephemeral()) {
+            throw new IllegalStateException("mfa.store.type=redis needs mfa.attempt.secret shared by all replicas");
+        }
+        this.client = RedisClient.create(uri);
+        this.connection = client.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+        this.redis = connection.sync();
+        this.ttlMillis = Duration.ofSeconds(ttlSeconds).toMillis();
+    }
+
+    @PreDestroy
+    public void close() {
+        connection.close();
+        client.shutdown();
+    }
+
+    @Override
+    public String create(String realm, String username, String userId, String password) {
+        String id = UUID.randomUUID().toString();
+        Attempt a = Attempt.builder()
+                .realm(realm)
+                .username(username)
+                .userId(userId)
+                .sealedPassword(secrets.seal(password))
+                .createdAt(Instant.now())
+                .build();
+        redis.set(attemptKey(id), AttemptCodec.encode(a), SetArgs.Builder.px(ttlMillis));
+        return id;
+    }
+
+    @Override
+    public Attempt get(String id) {
+        if (id == null) return null;
+        byte[] data = redis.get(attemptKey(id));
+        return data == null ? null : AttemptCodec.decode(data);
+    }
+
+    @Override
+    public String password(Attempt a) {
+        return secrets.open(a.getSealedPassword());
+    }
+
+    @Override
+    public void remove(String id) {
+        redis.del(attemptKey(id), otpKey(id), failsKey(id));
+    }
+
+    @Override
+    public void setEmailOtp(String id, String code, Instant expiry) {
+        long ttl = Duration.between(Instant.now(), expiry).toMillis();
+        if (ttl <= 0 || redis.exists(attemptKey(id)) == 0) return;
+        redis.set(otpKey(id), tagBytes(secrets.otpTag(id, code)), SetArgs.Builder.px(ttl));
+    }
+
+    @Override
+    public boolean consumeValidEmailOtp(String id, String code) {
+        if (code == null) return false;
+        Boolean ok = redis.eval(CONSUME_IF_EQUAL, ScriptOutputType.BOOLEAN,
+                new String[]{otpKey(id)}, tagBytes(secrets.otpTag(id, code)));
+        return Boolean.TRUE.equals(ok);
+    }
+
+    @Override
+    public boolean reserveGuess(String id, String userId) {
+        if (id == null || userId == null) return false;
+        Long r = redis.eval(RESERVE_GUESS, ScriptOutputType.INTEGER,
+                new String[]{attemptKey(id), failsKey(id), otpKey(id), userFailsKey(userId), userLockKey(userId)},
+                bytes(ttlMillis), bytes(lockout.attemptMaxFailures()), bytes(lockout.windowMillis()),
+                bytes(lockout.userFreeFailures()), bytes(lockout.baseLockoutMillis()), bytes(lockout.maxLockoutMillis()));
+        if (r > 0) throw new LockedOutException(r);
+        return r == 0;
+    }
+
+    @Override
+    public void refundGuess(String id, String userId) {
+        if (id == null || userId == null) return;
+        redis.eval(REFUND_GUESS, ScriptOutputType.INTEGER,
+                new String[]{attemptKey(id), failsKey(id), userFailsKey(userId)});
+    }
+
+    @Override
+    public void clearFailures(String userId) {
+        if (userId != null) redis.del(userFailsKey(userId), userLockKey(userId));
+    }
+
+    @Override
+    public void bindState(String state, String attemptId) {
+        redis.set(stateKey(state), attemptId.getBytes(StandardCharsets.UTF_8), SetArgs.Builder.px(ttlMillis));
+    }
+
+    @Override
+    public void clearState(String state) {
+        redis.del(stateKey(state));
+    }
+
+    @Override
+    public void revoke(String key, long ttlMillis) {
+        redis.set(revokedKey(key), bytes(System.currentTimeMillis()), SetArgs.Builder.px(ttlMillis));
+    }
+
+    @Override
+    public boolean revokeOnce(String key, long ttlMillis) {
+        return "OK".equals(redis.set(revokedKey(key), bytes(System.currentTimeMillis()),
+                SetArgs.Builder.nx().px(ttlMillis)));
+    }
+
+    @Override
+    public long revokedAt(String key) {
+        byte[] at = redis.get(revokedKey(key));
+        return at == null ? 0 : Long.parseLong(new String(at, StandardCharsets.UTF_8));
+    }
+
+    private static String attemptKey(String id) {
+        return "mfa:attempt:" + id;
+    }
+
+    private static String otpKey(String id) {
+        return "mfa:attempt:" + id + ":otp";
+    }
+
+    private static String failsKey(String id) {
+        return "mfa:attempt:" + id + ":fails";
+    }
+
+    private static String userFailsKey(String userId) {
+        return "mfa:user:" + userId + ":fails";
+    }
+
+    private static String userLockKey(String userId) {
+        return "mfa:user:" + userId + ":lock";
+    }
+
+    private static byte[] tagBytes(long tag) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(tag).array();
+    }
+
+    private static byte[] bytes(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String stateKey(String state) {
+        return "mfa:state:" + state;
+    }
+
+    private static String revokedKey(String key) {
+        return "mfa:revoked:" + key;
+    }
+}
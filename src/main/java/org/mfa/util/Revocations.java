@@ -0,0 +1,32 @@
+package org.mfa.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Revocation markers for the single-node stores (see {@link PendingMfaStore#revoke}). */
+class Revocations {
+
+    private record Revocation(long at, long expiresAt) {}
+
+    private final Map<String, Revocation> revocations = new ConcurrentHashMap<>();
+
+    void revoke(String key, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        revocations.put(key, new Revocation(now, now + ttlMillis));
+    }
+
+    boolean revokeOnce(String key, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        Revocation mine = new Revocation(now, now + ttlMillis);
+        return revocations.merge(key, mine, (old, n) -> old.expiresAt() > now ? old : n) == mine;
+    }
+
+    long revokedAt(String key) {
+        Revocation r = revocations.get(key);
+        return r == null || r.expiresAt() <= System.currentTimeMillis() ? 0 : r.at();
+    }
+
+    void sweep(long now) {
+        revocations.values().removeIf(r -> r.expiresAt() <= now);
+    }
+}
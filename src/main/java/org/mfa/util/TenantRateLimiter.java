@@ -0,0 +1,40 @@
+package org.mfa.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces bulk admin operations per tenant (realm) to {@code batch.rate-per-second}.
+ * Each realm has a "next free slot" timestamp advanced with CAS; a caller reserves the next slot
+ * and sleeps until it, so concurrent batches against the same realm share one budget.
+ */
+@Component
+public class TenantRateLimiter {
+
+    private final Map<String, AtomicLong> nextSlot = new ConcurrentHashMap<>();
+    private final long intervalNanos;
+
+    public TenantRateLimiter(@Value("${batch.rate-per-second:50}") double ratePerSecond) {
+        this.intervalNanos = ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+    }
+
+    public void acquire(String realm) throws InterruptedException {
+        if (intervalNanos == 0) return;
+        AtomicLong next = nextSlot.computeIfAbsent(realm, k -> new AtomicLong(System.nanoTime()));
+
+        long now, current, slot;
+        do {
+            now = System.nanoTime();
+            current = next.get();
+            slot = Math.max(now, current);
+        } while (!next.compareAndSet(current, slot + intervalNanos));
+
+        long wait = slot - now;
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+}
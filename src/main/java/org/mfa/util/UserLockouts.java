@@ -0,0 +1,55 @@
+package org.mfa.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Per-user failure counts and lockouts for the single-node stores, following {@link LockoutPolicy}. */
+class UserLockouts {
+
+    private record UserFailures(int count, long windowEndsAt, long lockedUntil) {}
+
+    private final Map<String, UserFailures> failures = new ConcurrentHashMap<>();
+    private final LockoutPolicy policy;
+
+    UserLockouts(LockoutPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Counts a guess as a failure up front. A guess that would lock the user if wrong takes the lock
+     * right away, so concurrent guesses past it are refused instead of racing the check.
+     *
+     * @throws PendingMfaStore.LockedOutException while the user is locked out; nothing is counted
+     */
+    void reserve(String userId) {
+        if (userId == null) return;
+        long now = System.currentTimeMillis();
+        long[] lockedFor = {0};
+        failures.compute(userId, (k, f) -> {
+            if (f != null && f.lockedUntil() > now) {
+                lockedFor[0] = f.lockedUntil() - now;
+                return f;
+            }
+            int count = f == null || f.windowEndsAt() <= now ? 1 : f.count() + 1;
+            long lock = policy.lockoutMillis(count);
+            return new UserFailures(count, now + policy.windowMillis(), lock > 0 ? now + lock : 0);
+        });
+        if (lockedFor[0] > 0) throw new PendingMfaStore.LockedOutException(lockedFor[0]);
+    }
+
+    /** Gives back a guess whose code was never checked; a lock it took stays until it expires. */
+    void refund(String userId) {
+        if (userId == null) return;
+        failures.computeIfPresent(userId, (k, f) ->
+                new UserFailures(Math.max(0, f.count() - 1), f.windowEndsAt(), f.lockedUntil()));
+    }
+
+    /** Resets the count and lifts any lock, after a successful verification. */
+    void clear(String userId) {
+        if (userId != null) failures.remove(userId);
+    }
+
+    void sweep(long now) {
+        failures.values().removeIf(f -> f.windowEndsAt() <= now && f.lockedUntil() <= now);
+    }
+}
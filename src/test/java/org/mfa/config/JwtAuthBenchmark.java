@@ -0,0 +1,91 @@
+package org.mfa.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.mfa.security.JwtKeyRing;
+import org.mfa.security.JwtService;
+import org.mfa.security.JwtVerifier;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of authenticating an {@code /api/secure/**} call with an HS256 bearer token:
+ * <ul>
+ *   <li>{@code perRequestParser}: what {@code JwtFilter} did before, deriving the key and building a
+ *       parser for every request;</li>
+ *   <li>{@code sharedParser}: {@link JwtVerifier} with its token cache off;</li>
+ *   <li>{@code cachedVerify}: {@link JwtVerifier} with a repeat token;</li>
+ *   <li>{@code filter}: the whole {@link SecurityConfig.JwtFilter} pass on a cached token.</li>
+ * </ul>
+ * Run: {@code mvn -Pbench test-compile exec:exec -Dbench.args="JwtAuth -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAuthBenchmark {
+
+    private static final String SECRET = "benchmark-secret-that-is-at-least-256-bits-long!!";
+    private static final FilterChain NOOP = (req, resp) -> {};
+
+    private String token;
+    private JwtVerifier uncached;
+    private JwtVerifier cached;
+    private SecurityConfig.JwtFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        JwtKeyRing hs256 = new JwtKeyRing("HS256", "", "PKCS12", "", 15, 5, new ObjectMapper());
+        JwtService jwt = new JwtService(hs256);
+        ReflectionTestUtils.setField(jwt, "secret", SECRET);
+        ReflectionTestUtils.setField(jwt, "expMinutes", 15L);
+        jwt.initKey();
+        token = jwt.issue("acme", "0b6c5e0e-6b1f-4c55-9f0e-5d7b8f9b1a2c", "alice");
+
+        uncached = new JwtVerifier(jwt, hs256, 0, meters);
+        cached = new JwtVerifier(jwt, hs256, 10000, meters);
+        filter = new SecurityConfig.JwtFilter(cached);
+        request = new MockHttpServletRequest("GET", "/api/secure/me");
+        request.addHeader("Authorization", "Bearer " + token);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Claims perRequestParser() {
+        return Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)))
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    @Benchmark
+    public Claims sharedParser() {
+        return uncached.verify(token);
+    }
+
+    @Benchmark
+    public Claims cachedVerify() {
+        return cached.verify(token);
+    }
+
+    @Benchmark
+    public int filter() throws Exception {
+        filter.doFilter(request, response, NOOP);
+        return response.getStatus();
+    }
+}
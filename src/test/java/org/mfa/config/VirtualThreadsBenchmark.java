@@ -0,0 +1,125 @@
+package org.mfa.config;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin-client lookups per second with request handling on 200 platform threads (Tomcat's default
+ * {@code server.tomcat.threads.max}) versus one virtual thread per request, against a fake Keycloak
+ * that answers after {@code latencyMs}. The virtual mode needs a Java 21 runtime.
+ * <p>
+ * Forks run with {@code -Djdk.tracePinnedThreads=short}, so any pinning in the admin client shows up
+ * in the output, and with {@code http.maxConnections} at the admin pool size, as recommended for
+ * virtual mode. At low latency the run is bound by CPU (client and fake server share the machine),
+ * so compare modes at the higher latency, where thread count is the limit. Run: {@code mvn -Pbench test-compile exec:exec -Dbench.args="VirtualThreads"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.tracePinnedThreads=short",
+        "-Dhttp.maxConnections=400", "-Dsun.net.httpserver.maxIdleConnections=1000", "-Dsun.net.httpserver.nodelay=true"})
+public class VirtualThreadsBenchmark {
+
+    private static final int CONCURRENT_REQUESTS = 1000;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int ADMIN_POOL = 400;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    @Param({"50", "1000"})
+    public int latencyMs;
+
+    private HttpServer keycloak;
+    private ExecutorService keycloakThreads;
+    private Keycloak admin;
+    private ExecutorService requests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        keycloak = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        keycloakThreads = Executors.newCachedThreadPool();
+        keycloak.setExecutor(keycloakThreads);
+        keycloak.createContext("/realms/master/protocol/openid-connect/token",
+                ex -> reply(ex, 200, "{\"access_token\":\"bench\",\"expires_in\":300,\"token_type\":\"Bearer\"}"));
+        keycloak.createContext("/admin/realms/bench/users/", ex -> {
+            if (!"Bearer bench".equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+                reply(ex, 401, "{}");
+                return;
+            }
+            sleep(latencyMs);
+            reply(ex, 200, "{\"id\":\"u-1\",\"username\":\"alice\",\"enabled\":true}");
+        });
+        keycloak.start();
+
+        KeycloakClientConfig config = new KeycloakClientConfig();
+        ReflectionTestUtils.setField(config, "serverUrl", "http://127.0.0.1:" + keycloak.getAddress().getPort());
+        ReflectionTestUtils.setField(config, "realm", "master");
+        ReflectionTestUtils.setField(config, "clientId", "admin-cli");
+        ReflectionTestUtils.setField(config, "adminUsername", "admin");
+        ReflectionTestUtils.setField(config, "adminPassword", "admin");
+        ReflectionTestUtils.setField(config, "connectionPoolSize", ADMIN_POOL);
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 10000L);
+        ReflectionTestUtils.setField(config, "tokenMinValiditySeconds", 30L);
+        ReflectionTestUtils.setField(config, "virtualThreads", "virtual".equals(mode));
+        admin = config.keycloakAdminClient(config.keycloakAdminToken());
+
+        requests = "virtual".equals(mode)
+                ? ExecutorConfig.newVirtualThreadExecutor()
+                        .orElseThrow(() -> new IllegalStateException("mode=virtual needs a Java 21 runtime"))
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requests.shutdownNow();
+        admin.close();
+        keycloak.stop(0);
+        keycloakThreads.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_REQUESTS)
+    public void userLookups(Blackhole bh) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<UserRepresentation>[] calls = new CompletableFuture[CONCURRENT_REQUESTS];
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            calls[i] = CompletableFuture.supplyAsync(
+                    () -> admin.realm("bench").users().get("u-1").toRepresentation(), requests);
+        }
+        CompletableFuture.allOf(calls).join();
+        bh.consume(calls[0].join());
+    }
+
+    private static void reply(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+        ex.close();
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.mfa.controller;
+
+import org.junit.jupiter.api.Test;
+import org.mfa.service.UserExportService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class UserControllerTest {
+
+    private final UserController controller =
+            new UserController(null, null, mock(UserExportService.class), null, null);
+
+    @Test
+    void exportRejectsUnknownFormatsAndNegativeCursors() {
+        assertThatThrownBy(() -> controller.exportUsers("r", "xml", false, 0))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> controller.exportUsers("r", "csv", false, -1))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void exportFormatIsCaseInsensitive() {
+        assertThat(controller.exportUsers("r", " ndJSON ", false, 0).getHeaders().getContentType())
+                .hasToString("application/x-ndjson");
+    }
+}
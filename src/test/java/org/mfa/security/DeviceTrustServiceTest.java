@@ -0,0 +1,91 @@
+package org.mfa.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mfa.util.AttemptSecrets;
+import org.mfa.util.InMemoryPendingMfaStore;
+import org.mfa.util.LockoutPolicy;
+import org.mfa.util.PendingMfaStore;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeviceTrustServiceTest {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private PendingMfaStore store;
+    private DeviceTrustService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new InMemoryPendingMfaStore(600, 10, 100, "reject",
+                new LockoutPolicy(5, 5, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+        service = trust(store);
+    }
+
+    private static DeviceTrustService trust(PendingMfaStore store) throws Exception {
+        return new DeviceTrustService(true, 30, SECRET, store, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void tokenIsBoundToRealmUserAndDevice() {
+        String token = service.remember("r", "u1", "device-a");
+
+        assertThat(service.isTrusted(token, "r", "u1", "device-a")).isTrue();
+        assertThat(service.isTrusted(token, "r", "u1", "device-b")).isFalse();
+        assertThat(service.isTrusted(token, "r", "u2", "device-a")).isFalse();
+        assertThat(service.isTrusted(token, "other", "u1", "device-a")).isFalse();
+    }
+
+    @Test
+    void tokensVerifyOnEveryInstanceWithTheSameSecret() throws Exception {
+        String token = service.remember("r", "u1", "device-a");
+        assertThat(trust(store).isTrusted(token, "r", "u1", "device-a")).isTrue();
+    }
+
+    @Test
+    void tamperedTokensAreRejected() {
+        String token = service.remember("r", "u1", "device-a");
+        char first = token.charAt(0);
+        String tampered = (first == 'A' ? 'B' : 'A') + token.substring(1);
+
+        assertThat(service.isTrusted(tampered, "r", "u1", "device-a")).isFalse();
+        assertThat(service.isTrusted("garbage", "r", "u1", "device-a")).isFalse();
+        assertThat(service.isTrusted("a.b", "r", "u1", "device-a")).isFalse();
+    }
+
+    @Test
+    void forgetRevokesOnlyThatToken() {
+        String a = service.remember("r", "u1", "device-a");
+        String b = service.remember("r", "u1", "device-b");
+
+        service.forget(a);
+
+        assertThat(service.isTrusted(a, "r", "u1", "device-a")).isFalse();
+        assertThat(service.isTrusted(b, "r", "u1", "device-b")).isTrue();
+    }
+
+    @Test
+    void forgetUserRevokesEarlierTokensOfThatUser() throws Exception {
+        String a = service.remember("r", "u1", "device-a");
+        String other = service.remember("r", "u2", "device-a");
+
+        service.forgetUser(null, "u1");
+        Thread.sleep(5);
+        String later = service.remember("r", "u1", "device-a");
+
+        assertThat(service.isTrusted(a, "r", "u1", "device-a")).isFalse();
+        assertThat(service.isTrusted(other, "r", "u2", "device-a")).isTrue();
+        assertThat(service.isTrusted(later, "r", "u1", "device-a")).isTrue();
+    }
+
+    @Test
+    void enablingWithoutASecretFailsStartup() {
+        assertThatThrownBy(() -> new DeviceTrustService(true, 30, " ", store, new SimpleMeterRegistry()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,54 @@
+package org.mfa.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens per second and bytes allocated per HS256 token: {@link JwtService#issue} (pre-encoded
+ * header, hand-written claims, cloned pre-keyed Mac) against the {@code Jwts.builder()} path it
+ * replaced. Run with the GC profiler for allocation:
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.args="JwtIssue -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtIssueBenchmark {
+
+    private JwtService jwt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jwt = new JwtService(new JwtKeyRing("HS256", "", "PKCS12", "", 15, 5, new ObjectMapper()));
+        ReflectionTestUtils.setField(jwt, "secret", "benchmark-secret-that-is-at-least-256-bits-long!!");
+        ReflectionTestUtils.setField(jwt, "expMinutes", 15L);
+        jwt.initKey();
+    }
+
+    @Benchmark
+    public String issue() {
+        return jwt.issue("acme", "0b6c5e0e-6b1f-4c55-9f0e-5d7b8f9b1a2c", "alice");
+    }
+
+    @Benchmark
+    public String jjwtBuilder() {
+        Instant now = Instant.now();
+        return Jwts.builder()
+                .setSubject("0b6c5e0e-6b1f-4c55-9f0e-5d7b8f9b1a2c")
+                .claim("realm", "acme")
+                .claim("username", "alice")
+                .setIssuedAt(Date.from(now))
+                .setExpiration(Date.from(now.plusSeconds(15 * 60)))
+                .signWith(jwt.signingKey(), SignatureAlgorithm.HS256)
+                .compact();
+    }
+}
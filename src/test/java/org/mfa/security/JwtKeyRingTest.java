@@ -0,0 +1,75 @@
+package org.mfa.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtKeyRingTest {
+
+    @TempDir
+    Path dir;
+
+    /** Adds an EC P-256 key whose certificate becomes valid at {@code startDate} (keytool syntax, e.g. "-1d"). */
+    private void addKey(Path store, String alias, String startDate) throws Exception {
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process p = new ProcessBuilder(List.of(keytool, "-genkeypair", "-storetype", "PKCS12",
+                "-keystore", store.toString(), "-storepass", "changeit", "-alias", alias,
+                "-keyalg", "EC", "-groupname", "secp256r1", "-sigalg", "SHA256withECDSA",
+                "-dname", "CN=" + alias, "-startdate", startDate, "-validity", "30"))
+                .redirectErrorStream(true).start();
+        assertThat(p.waitFor()).as(new String(p.getInputStream().readAllBytes())).isZero();
+    }
+
+    private JwtKeyRing ring(Path store) {
+        return new JwtKeyRing("ES256", store.toString(), "PKCS12", "changeit", 15, 5, new ObjectMapper());
+    }
+
+    @Test
+    void replicasShareKeysFromTheKeystore() throws Exception {
+        Path store = dir.resolve("jwt.p12");
+        addKey(store, "current", "-1d");
+        JwtKeyRing a = ring(store);
+        JwtKeyRing b = ring(store);
+        a.init();
+        b.init();
+
+        assertThat(a.active().kid()).isEqualTo(b.active().kid());
+        assertThat(b.publicKey(a.active().kid())).isEqualTo(a.active().pair().getPublic());
+        assertThat(a.jwksJson()).isEqualTo(b.jwksJson());
+    }
+
+    @Test
+    void futureKeyIsPublishedBeforeItSigns() throws Exception {
+        Path store = dir.resolve("jwt.p12");
+        addKey(store, "current", "-1d");
+        JwtKeyRing ring = ring(store);
+        ring.init();
+        String current = ring.active().kid();
+
+        addKey(store, "next", "+1d");
+        ring.reload();
+
+        assertThat(ring.active().kid()).isEqualTo(current);
+        assertThat(ring.jwksJson().split("\"kid\"")).hasSize(3);
+    }
+
+    @Test
+    void asymmetricAlgorithmNeedsAKeystore() {
+        JwtKeyRing ring = new JwtKeyRing("RS256", "", "PKCS12", "", 15, 5, new ObjectMapper());
+        assertThatThrownBy(ring::init).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void keystoreWithoutMatchingKeysFailsStartup() throws Exception {
+        Path store = dir.resolve("jwt.p12");
+        addKey(store, "ec", "-1d");
+        JwtKeyRing rsa = new JwtKeyRing("RS256", store.toString(), "PKCS12", "changeit", 15, 5, new ObjectMapper());
+        assertThatThrownBy(rsa::init).hasMessageContaining("No RS256 key entries");
+    }
+}
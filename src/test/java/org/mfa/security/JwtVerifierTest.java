@@ -0,0 +1,71 @@
+package org.mfa.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.KeyPair;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JwtVerifierTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+    private double count(String result) {
+        return meters.get("jwt.verify.cache").tag("result", result).counter().count();
+    }
+
+    private static JwtService hs256() {
+        JwtService jwt = new JwtService(new JwtKeyRing("HS256", "", "PKCS12", "", 15, 5, new ObjectMapper()));
+        ReflectionTestUtils.setField(jwt, "secret", "0123456789abcdef0123456789abcdef");
+        ReflectionTestUtils.setField(jwt, "expMinutes", 15L);
+        jwt.initKey();
+        return jwt;
+    }
+
+    @Test
+    void repeatTokensAreServedFromTheCacheUpToItsSize() {
+        JwtService jwt = hs256();
+        JwtVerifier verifier = new JwtVerifier(jwt, new JwtKeyRing("HS256", "", "PKCS12", "", 15, 5, new ObjectMapper()), 2, meters);
+        String a = jwt.issue("r", "a", "alice"), b = jwt.issue("r", "b", "bob"), c = jwt.issue("r", "c", "carol");
+
+        for (String t : new String[] {a, b, c}) verifier.verify(t);
+        assertThat(verifier.verify(a).getSubject()).isEqualTo("a");
+        assertThat(verifier.verify(b).getSubject()).isEqualTo("b");
+        assertThat(verifier.verify(c).getSubject()).isEqualTo("c");
+
+        // a and b fit; c did not, and is verified again every time
+        assertThat(count("hit")).isEqualTo(2);
+        assertThat(count("miss")).isEqualTo(4);
+    }
+
+    @Test
+    void cachedTokensStopVerifyingOnceTheirKeyIsRetired() {
+        KeyPair pair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+        JwtKeyRing ring = mock(JwtKeyRing.class);
+        when(ring.enabled()).thenReturn(true);
+        when(ring.publicKey("k1")).thenReturn(pair.getPublic());
+        JwtVerifier verifier = new JwtVerifier(mock(JwtService.class), ring, 10, meters);
+        String token = Jwts.builder().setHeaderParam("kid", "k1").setSubject("u1")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(pair.getPrivate(), SignatureAlgorithm.ES256).compact();
+
+        verifier.verify(token);
+        assertThat(verifier.verify(token).getSubject()).isEqualTo("u1");
+        assertThat(count("hit")).isEqualTo(1);
+
+        when(ring.publicKey("k1")).thenReturn(null);
+        assertThatThrownBy(() -> verifier.verify(token)).isInstanceOf(JwtException.class);
+        assertThat(count("hit")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,135 @@
+package org.mfa.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mfa.dto.FinalTokenResponse;
+import org.mfa.security.RefreshTokenService.RefreshRejectedException;
+import org.mfa.util.AttemptSecrets;
+import org.mfa.util.InMemoryPendingMfaStore;
+import org.mfa.util.LockoutPolicy;
+import org.mfa.util.PendingMfaStore;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RefreshTokenServiceTest {
+
+    private JwtService jwt;
+    private PendingMfaStore store;
+    private RefreshTokenService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jwt = new JwtService(new JwtKeyRing("HS256", "", "PKCS12", "", 15, 5, new ObjectMapper()));
+        ReflectionTestUtils.setField(jwt, "secret", "test-secret-that-is-at-least-256-bits-long!!!!!!");
+        ReflectionTestUtils.setField(jwt, "expMinutes", 15L);
+        jwt.initKey();
+        store = new InMemoryPendingMfaStore(600, 10, 100, "reject",
+                new LockoutPolicy(5, 5, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+        service = replica();
+    }
+
+    /** Another instance sharing the key (jwt.secret) and the store. */
+    private RefreshTokenService replica() {
+        return new RefreshTokenService(jwt, store, true, 60, 24, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void reusingAConsumedTokenRevokesTheFamily() {
+        String first = service.issue("realm", "user-1", "alice").getRefreshToken();
+        FinalTokenResponse rotated = service.refresh(first);
+        assertThat(rotated.getToken()).isNotBlank();
+        assertThat(rotated.getRefreshToken()).isNotEqualTo(first);
+
+        assertRejected(service, first, "REFRESH_TOKEN_REUSED");
+        assertRejected(service, rotated.getRefreshToken(), "INVALID_REFRESH_TOKEN");
+    }
+
+    @Test
+    void anyReplicaSharingTheStoreCanRefreshAndSeesReuse() {
+        RefreshTokenService other = replica();
+        String first = service.issue("realm", "user-1", "alice").getRefreshToken();
+
+        String second = other.refresh(first).getRefreshToken();
+        assertThat(service.refresh(second).getRefreshToken()).isNotBlank();
+        assertRejected(other, second, "REFRESH_TOKEN_REUSED");
+    }
+
+    @Test
+    void concurrentRefreshesWithOneTokenHaveOneWinner() throws Exception {
+        String first = service.issue("realm", "user-1", "alice").getRefreshToken();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                RefreshTokenService replica = i % 2 == 0 ? service : replica();
+                calls.add(() -> {
+                    try {
+                        replica.refresh(first);
+                        return true;
+                    } catch (RefreshRejectedException e) {
+                        return false;
+                    }
+                });
+            }
+            int winners = 0;
+            for (Future<Boolean> f : pool.invokeAll(calls)) if (f.get()) winners++;
+            assertThat(winners).isEqualTo(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void revokeUserInvalidatesAllFamiliesOfThatUserOnly() throws Exception {
+        String a = service.issue("realm", "user-1", "alice").getRefreshToken();
+        String b = service.issue("realm", "user-1", "alice").getRefreshToken();
+        String other = service.issue("realm", "user-2", "bob").getRefreshToken();
+
+        replica().revokeUser("user-1");
+        Thread.sleep(5);
+        String later = service.issue("realm", "user-1", "alice").getRefreshToken();
+
+        assertRejected(service, a, "INVALID_REFRESH_TOKEN");
+        assertRejected(service, b, "INVALID_REFRESH_TOKEN");
+        assertThat(service.refresh(other).getRefreshToken()).isNotBlank();
+        assertThat(service.refresh(later).getRefreshToken()).isNotBlank();
+    }
+
+    @Test
+    void logoutRevokesTheFamilyEverywhere() {
+        String first = service.issue("realm", "user-1", "alice").getRefreshToken();
+        String second = service.refresh(first).getRefreshToken();
+
+        replica().revoke(first);
+
+        assertRejected(service, second, "INVALID_REFRESH_TOKEN");
+    }
+
+    @Test
+    void tamperedOrForeignTokensAreRejected() {
+        String token = service.issue("realm", "user-1", "alice").getRefreshToken();
+        char c = token.charAt(0);
+
+        assertRejected(service, (c == 'A' ? 'B' : 'A') + token.substring(1), "INVALID_REFRESH_TOKEN");
+        assertRejected(service, "garbage", "INVALID_REFRESH_TOKEN");
+        assertRejected(service, "a.b", "INVALID_REFRESH_TOKEN");
+        // Signed with the JWT secret itself, not the derived refresh key
+        assertRejected(service, jwt.issue("realm", "user-1", "alice"), "INVALID_REFRESH_TOKEN");
+    }
+
+    private static void assertRejected(RefreshTokenService service, String token, String code) {
+        assertThatThrownBy(() -> service.refresh(token))
+                .isInstanceOfSatisfying(RefreshRejectedException.class, e -> assertThat(e.getCode()).isEqualTo(code));
+    }
+}
@@ -0,0 +1,64 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.RealmRepresentation;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RealmDirectoryTest {
+
+    @Test
+    void concurrentMissesShareOneReload() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        RealmDirectory.BriefRealms slowKeycloak = brief -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            RealmRepresentation r = new RealmRepresentation();
+            r.setId("ID-1");
+            r.setRealm("acme");
+            return List.of(r);
+        };
+        Keycloak keycloak = mock(Keycloak.class);
+        when(keycloak.proxy(eq(RealmDirectory.BriefRealms.class), any(URI.class))).thenReturn(slowKeycloak);
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            RealmDirectory realms = new RealmDirectory(keycloak, "http://kc/", pool, 300, 240, new SimpleMeterRegistry());
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<String>>> names = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                names.add(pool.submit(() -> {
+                    start.await();
+                    return realms.realmName("id-1");
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<String>> name : names) {
+                assertThat(name.get()).contains("acme");
+            }
+            assertThat(loads).hasValue(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
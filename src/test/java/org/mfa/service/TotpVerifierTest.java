@@ -0,0 +1,174 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.representations.userprofile.config.UPAttribute;
+import org.keycloak.representations.userprofile.config.UPAttributePermissions;
+import org.keycloak.representations.userprofile.config.UPConfig;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TotpVerifierTest {
+
+    /** RFC 6238 appendix B seeds: "1234567890" repeated to the hash's output length. */
+    private static final String SEED20 = "12345678901234567890";
+    private static final String SEED32 = SEED20 + "123456789012";
+    private static final String SEED64 = SEED20 + SEED20 + SEED20 + "1234";
+
+    private static final String SECRET_B32 = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+    private static TotpVerifier verifier(Keycloak keycloak, String algorithm, int digits) {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        return new TotpVerifier(keycloak, new CredentialTypeCache(300, 5, 100, meters),
+                "local", "totp_secret", algorithm, digits, 30, 1, 300, meters);
+    }
+
+    /** Realm "r" whose user profile declares the secret attribute as admin-only. */
+    private static Keycloak realmWithAdminOnlySecret() {
+        Keycloak keycloak = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+        UPAttribute attribute = new UPAttribute("totp_secret", new UPAttributePermissions(Set.of("admin"), Set.of("admin")));
+        UPConfig profile = new UPConfig();
+        profile.addOrReplaceAttribute(attribute);
+        when(keycloak.realms().realm("r").users().userProfile().getConfiguration()).thenReturn(profile);
+        return keycloak;
+    }
+
+    /** User {@code id} of realm "r" with the test secret and, optionally, an OTP credential in Keycloak. */
+    private static void userWithSecret(Keycloak keycloak, String id, boolean otpCredential) {
+        UserRepresentation user = new UserRepresentation();
+        user.setAttributes(Map.of("totp_secret", List.of(SECRET_B32)));
+        CredentialRepresentation otp = new CredentialRepresentation();
+        otp.setType("otp");
+        UserResource resource = keycloak.realms().realm("r").users().get(id);
+        when(resource.toRepresentation()).thenReturn(user);
+        when(resource.credentials()).thenReturn(otpCredential ? List.of(otp) : List.of());
+    }
+
+    private static String currentCode(TotpVerifier totp, long stepOffset) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(SEED20.getBytes(StandardCharsets.US_ASCII), "HmacSHA1"));
+        long step = System.currentTimeMillis() / 1000 / 30 + stepOffset;
+        return new String(totp.codeAt(mac, step), StandardCharsets.US_ASCII);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "HmacSHA1,   59,          94287082",
+            "HmacSHA1,   1111111109,  07081804",
+            "HmacSHA1,   1111111111,  14050471",
+            "HmacSHA1,   1234567890,  89005924",
+            "HmacSHA1,   2000000000,  69279037",
+            "HmacSHA1,   20000000000, 65353130",
+            "HmacSHA256, 59,          46119246",
+            "HmacSHA256, 1111111109,  68084774",
+            "HmacSHA256, 1111111111,  67062674",
+            "HmacSHA256, 1234567890,  91819424",
+            "HmacSHA256, 2000000000,  90698825",
+            "HmacSHA256, 20000000000, 77737706",
+            "HmacSHA512, 59,          90693936",
+            "HmacSHA512, 1111111109,  25091201",
+            "HmacSHA512, 1111111111,  99943326",
+            "HmacSHA512, 1234567890,  93441116",
+            "HmacSHA512, 2000000000,  38618901",
+            "HmacSHA512, 20000000000, 47863826",
+    })
+    void matchesRfc6238TestVectors(String algorithm, long unixSeconds, String expected) throws Exception {
+        String seed = switch (algorithm) {
+            case "HmacSHA1" -> SEED20;
+            case "HmacSHA256" -> SEED32;
+            default -> SEED64;
+        };
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(seed.getBytes(StandardCharsets.US_ASCII), algorithm));
+
+        byte[] code = verifier(mock(Keycloak.class), algorithm, 8).codeAt(mac, unixSeconds / 30);
+        assertThat(new String(code, StandardCharsets.US_ASCII)).isEqualTo(expected);
+    }
+
+    @Test
+    void decodesBase32Secrets() {
+        assertThat(TotpVerifier.base32("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"))
+                .isEqualTo(SEED20.getBytes(StandardCharsets.US_ASCII));
+        assertThat(TotpVerifier.base32("gezd gnbv gy3t qojq gezd gnbv gy3t qojq===="))
+                .isEqualTo(SEED20.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void acceptsTheCurrentCodeOnceAndRejectsReplays() throws Exception {
+        Keycloak keycloak = realmWithAdminOnlySecret();
+        userWithSecret(keycloak, "u1", true);
+        when(keycloak.realms().realm("r").users().get("u2").toRepresentation()).thenReturn(new UserRepresentation());
+        TotpVerifier totp = verifier(keycloak, "HmacSHA1", 6);
+
+        String current = currentCode(totp, 0);
+        String stale = currentCode(totp, -5);
+
+        assertThat(totp.verify("r", "u1", stale)).isEqualTo(TotpVerifier.Result.INVALID);
+        assertThat(totp.verify("r", "u1", current)).isEqualTo(TotpVerifier.Result.VALID);
+        assertThat(totp.verify("r", "u1", current)).isEqualTo(TotpVerifier.Result.REPLAYED);
+        assertThat(totp.verify("r", "u2", current)).isEqualTo(TotpVerifier.Result.NO_SECRET);
+    }
+
+    @Test
+    void ignoresTheSecretOnceTheOtpCredentialIsRemovedInKeycloak() throws Exception {
+        Keycloak keycloak = realmWithAdminOnlySecret();
+        userWithSecret(keycloak, "u1", false);
+        TotpVerifier totp = verifier(keycloak, "HmacSHA1", 6);
+
+        assertThat(totp.verify("r", "u1", currentCode(totp, 0))).isEqualTo(TotpVerifier.Result.NO_SECRET);
+    }
+
+    @Test
+    void ignoresSecretsThatUsersCouldEditThemselves() throws Exception {
+        Keycloak keycloak = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+        userWithSecret(keycloak, "u1", true);
+        UPConfig unmanaged = new UPConfig();
+        unmanaged.setUnmanagedAttributePolicy(UPConfig.UnmanagedAttributePolicy.ENABLED);
+        when(keycloak.realms().realm("r").users().userProfile().getConfiguration()).thenReturn(unmanaged);
+        TotpVerifier totp = verifier(keycloak, "HmacSHA1", 6);
+        assertThat(totp.verify("r", "u1", currentCode(totp, 0))).isEqualTo(TotpVerifier.Result.NO_SECRET);
+
+        Keycloak declared = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+        userWithSecret(declared, "u1", true);
+        UPConfig userEditable = new UPConfig();
+        userEditable.addOrReplaceAttribute(new UPAttribute("totp_secret",
+                new UPAttributePermissions(Set.of("admin"), Set.of("admin", "user"))));
+        when(declared.realms().realm("r").users().userProfile().getConfiguration()).thenReturn(userEditable);
+        TotpVerifier declaredTotp = verifier(declared, "HmacSHA1", 6);
+        assertThat(declaredTotp.verify("r", "u1", currentCode(declaredTotp, 0))).isEqualTo(TotpVerifier.Result.NO_SECRET);
+    }
+
+    @Test
+    void invalidateUserReloadsTheSecret() {
+        Keycloak keycloak = realmWithAdminOnlySecret();
+        UserResource user = keycloak.realms().realm("r").users().get("u1");
+        when(user.toRepresentation()).thenReturn(new UserRepresentation());
+        TotpVerifier totp = verifier(keycloak, "HmacSHA1", 6);
+
+        totp.verify("r", "u1", "123456");
+        totp.verify("r", "u1", "123456");
+        verify(user, times(1)).toRepresentation();
+
+        totp.invalidateUser("u1");
+        totp.verify("r", "u1", "123456");
+        verify(user, times(2)).toRepresentation();
+    }
+}
@@ -0,0 +1,142 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mfa.dto.BatchItemResultApiV1;
+import org.mfa.dto.UserApiV1;
+import org.mfa.util.TenantRateLimiter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserBatchServiceTest {
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final UserService users = mock(UserService.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private UserBatchService batch(double ratePerSecond, int concurrency) {
+        return new UserBatchService(users, new TenantRateLimiter(ratePerSecond), executor, json, concurrency,
+                new SimpleMeterRegistry());
+    }
+
+    private Map<String, BatchItemResultApiV1> results(ByteArrayOutputStream out) {
+        return out.toString(StandardCharsets.UTF_8).lines()
+                .map(l -> {
+                    try {
+                        return json.readValue(l, BatchItemResultApiV1.class);
+                    } catch (Exception e) {
+                        throw new AssertionError(l, e);
+                    }
+                })
+                .collect(Collectors.toMap(r -> String.valueOf(r.getId()), Function.identity()));
+    }
+
+    @Test
+    void reportsEveryItemWithItsOwnOutcomeAndReleasesPermits() {
+        // Every third item fails in a different way; with 2 permits a leaked one would hang the batch
+        when(users.deleteInRealm(eq("r"), anyString())).thenAnswer(inv -> {
+            int n = Integer.parseInt(inv.<String>getArgument(1).substring(1));
+            return switch (n % 3) {
+                case 0 -> true;
+                case 1 -> throw new NotFoundException();
+                default -> throw new IllegalStateException("boom " + n);
+            };
+        });
+        List<String> ids = IntStream.range(0, 30).mapToObj(i -> "u" + i).toList();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batch(0, 2).deleteUsers("r", ids, out));
+
+        Map<String, BatchItemResultApiV1> results = results(out);
+        assertThat(results).hasSize(30);
+        assertThat(results.get("u3").getStatus()).isEqualTo("DELETED");
+        assertThat(results.get("u4").getStatus()).isEqualTo("NOT_FOUND");
+        assertThat(results.get("u5").getStatus()).isEqualTo("FAILED");
+        assertThat(results.get("u5").getError()).isEqualTo("boom 5");
+    }
+
+    @Test
+    void itemsWithoutIdFailWithoutCallingKeycloak() {
+        UserApiV1 ok = new UserApiV1();
+        ok.setId("u1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batch(0, 2).updateUsers("r", List.of(ok, new UserApiV1()), out));
+
+        Map<String, BatchItemResultApiV1> results = results(out);
+        assertThat(results.get("u1").getStatus()).isEqualTo("UPDATED");
+        assertThat(results.get("null").getError()).isEqualTo("id is required");
+    }
+
+    @Test
+    void neverExceedsTheConcurrencyLimit() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        doAnswer(inv -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return null;
+        }).when(users).applyUpdate(eq("r"), anyString(), any());
+        List<UserApiV1> items = IntStream.range(0, 40).mapToObj(i -> {
+            UserApiV1 u = new UserApiV1();
+            u.setId("u" + i);
+            return u;
+        }).toList();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batch(0, 3).updateUsers("r", items, new ByteArrayOutputStream()));
+
+        assertThat(peak.get()).isBetween(1, 3);
+    }
+
+    @Test
+    void pacesItemsPerRealm() {
+        when(users.deleteInRealm(eq("r"), anyString())).thenReturn(true);
+        List<String> ids = IntStream.range(0, 11).mapToObj(i -> "u" + i).toList();
+
+        long start = System.nanoTime();
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batch(100, 8).deleteUsers("r", ids, new ByteArrayOutputStream()));
+
+        // 11 items at 100/s: the first goes at once, the last one 100 ms later
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(95));
+    }
+
+    @Test
+    void rejectedItemsAreReportedAndDoNotLeakPermits() {
+        executor.shutdown();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batch(0, 1).deleteUsers("r", List.of("a", "b", "c"), out));
+
+        assertThat(results(out).values()).extracting(BatchItemResultApiV1::getStatus).containsOnly("FAILED");
+        assertThat(results(out)).hasSize(3);
+    }
+}
@@ -0,0 +1,154 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserExportServiceTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Keycloak keycloak = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+    private final UsersResource users = keycloak.realm("r").users();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private UserExportService exports(int pageSize, int prefetchPages, long pageTimeoutMs) {
+        return new UserExportService(keycloak, executor, new ObjectMapper(), pageSize, prefetchPages, pageTimeoutMs,
+                new SimpleMeterRegistry());
+    }
+
+    /** A realm of {@code count} users named user-0, user-1, ... listed in that order. */
+    private void realmOf(int count) {
+        List<UserRepresentation> all = IntStream.range(0, count).mapToObj(i -> {
+            UserRepresentation u = new UserRepresentation();
+            u.setUsername("user-" + i);
+            u.setFirstName("First" + i);
+            u.setLastName(i % 2 == 0 ? "Last, Jr." : null);
+            return u;
+        }).toList();
+        when(users.list(anyInt(), anyInt())).thenAnswer(inv -> {
+            int first = inv.getArgument(0), max = inv.getArgument(1);
+            return all.subList(Math.min(first, count), Math.min(first + max, count));
+        });
+    }
+
+    @Test
+    void exportsEveryPageAsCsv() throws Exception {
+        realmOf(5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exports(2, 2, 5000).export("r", UserExportService.Format.CSV, 0, out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8).lines()).containsExactly(
+                "username,displayName",
+                "user-0,\"First0 Last, Jr.\"",
+                "user-1,First1",
+                "user-2,\"First2 Last, Jr.\"",
+                "user-3,First3",
+                "user-4,\"First4 Last, Jr.\"");
+    }
+
+    @Test
+    void resumesFromTheCursor() throws Exception {
+        realmOf(5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exports(2, 2, 5000).export("r", UserExportService.Format.NDJSON, 3, out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8).lines())
+                .hasSize(2)
+                .allSatisfy(l -> assertThat(l).startsWith("{"))
+                .anySatisfy(l -> assertThat(l).contains("\"user-3\""))
+                .anySatisfy(l -> assertThat(l).contains("\"user-4\""));
+        verify(users).list(3, 2);
+        verify(users).list(5, 2);
+    }
+
+    @Test
+    void producerStaysWithinThePrefetchWindowOfASlowWriter() throws Exception {
+        AtomicInteger listed = new AtomicInteger();
+        CountDownLatch windowFull = new CountDownLatch(4);
+        when(users.list(anyInt(), anyInt())).thenAnswer(inv -> {
+            listed.incrementAndGet();
+            windowFull.countDown();
+            UserRepresentation u = new UserRepresentation();
+            u.setUsername("user-" + (int) inv.getArgument(0));
+            return List.of(u);
+        });
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream slow = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+
+        Future<?> export = executor.submit(() -> {
+            exports(1, 2, 5000).export("r", UserExportService.Format.NDJSON, 0, slow);
+            return null;
+        });
+        try {
+            // One page being written, two queued, one listed and waiting for room
+            assertThat(windowFull.await(5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(200);
+            assertThat(listed.get()).isEqualTo(4);
+        } finally {
+            export.cancel(true);
+            release.countDown();
+        }
+    }
+
+    @Test
+    void abortsWhenNoPageArrivesInTime() {
+        CountDownLatch never = new CountDownLatch(1);
+        when(users.list(anyInt(), anyInt())).thenAnswer(inv -> {
+            never.await();
+            return List.of();
+        });
+
+        assertThatThrownBy(() -> exports(2, 2, 100).export("r", UserExportService.Format.CSV, 0, new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("no page from Keycloak within 100 ms");
+    }
+
+    @Test
+    void keycloakErrorsAbortTheExport() {
+        when(users.list(anyInt(), anyInt())).thenThrow(new IllegalStateException("keycloak down"));
+
+        assertThatThrownBy(() -> exports(2, 2, 5000).export("r", UserExportService.Format.CSV, 0, new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class)
+                .hasRootCauseMessage("keycloak down");
+    }
+}
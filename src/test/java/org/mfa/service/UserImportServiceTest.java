@@ -0,0 +1,38 @@
+package org.mfa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+class UserImportServiceTest {
+
+    @Test
+    void rejectedChunksAreReportedInsteadOfHanging() {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        UserImportService imports = new UserImportService(mock(Keycloak.class, RETURNS_DEEP_STUBS),
+                new ObjectMapper(), stopped, 2, 2, new SimpleMeterRegistry());
+
+        String body = "{\"username\":\"a\"}\n{\"username\":\"b\"}\n{\"username\":\"c\"}\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> imports.importUsers("r",
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), true, "SKIP", out));
+
+        String results = out.toString(StandardCharsets.UTF_8);
+        assertThat(results.lines().filter(l -> l.contains("\"FAILED\""))).hasSize(3);
+        assertThat(results).contains("\"failed\":3");
+    }
+}
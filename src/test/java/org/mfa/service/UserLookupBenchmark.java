@@ -0,0 +1,142 @@
+package org.mfa.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.util.JsonSerialization;
+import org.mfa.config.KeycloakClientConfig;
+import org.mfa.dto.UserApiV1;
+import org.mfa.security.DeviceTrustService;
+import org.mfa.security.RefreshTokenService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserService#getUser} against a fake Keycloak realm of {@code realmSize} users: the point
+ * lookup with the user cache off ({@code getUser}) and on ({@code getUserCached}) should stay flat as
+ * the realm grows, unlike listing the realm and filtering by id ({@code listThenFilter}), which is
+ * what getUser did before. Run: {@code mvn -Pbench test-compile exec:exec -Dbench.args="UserLookup"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class UserLookupBenchmark {
+
+    private static final String REALM_ID = "bench-id";
+
+    @Param({"100", "1000", "10000"})
+    public int realmSize;
+
+    private HttpServer keycloak;
+    private ExecutorService keycloakThreads;
+    private ExecutorService realmRefresh;
+    private Keycloak admin;
+    private UserService uncached;
+    private UserService cached;
+    private String userId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        List<UserRepresentation> users = new ArrayList<>(realmSize);
+        Map<String, byte[]> byPath = new HashMap<>();
+        for (int i = 0; i < realmSize; i++) {
+            UserRepresentation u = new UserRepresentation();
+            u.setId("u-" + i);
+            u.setUsername("user" + i);
+            u.setEmail("user" + i + "@example.com");
+            u.setFirstName("First" + i);
+            u.setLastName("Last" + i);
+            u.setEnabled(true);
+            u.setAttributes(Map.of("phone_number", List.of("+1555" + i)));
+            users.add(u);
+            byPath.put("/admin/realms/bench/users/" + u.getId(), JsonSerialization.writeValueAsBytes(u));
+        }
+        byPath.put("/admin/realms/bench/users", JsonSerialization.writeValueAsBytes(users));
+        byPath.put("/admin/realms", ("[{\"id\":\"" + REALM_ID + "\",\"realm\":\"bench\"}]").getBytes(StandardCharsets.UTF_8));
+        userId = "u-" + realmSize / 2;
+
+        keycloak = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        keycloakThreads = Executors.newFixedThreadPool(4);
+        keycloak.setExecutor(keycloakThreads);
+        keycloak.createContext("/realms/master/protocol/openid-connect/token", ex -> reply(ex, 200,
+                "{\"access_token\":\"bench\",\"expires_in\":300,\"token_type\":\"Bearer\"}".getBytes(StandardCharsets.UTF_8)));
+        keycloak.createContext("/admin/realms", ex -> {
+            byte[] body = byPath.get(ex.getRequestURI().getPath());
+            reply(ex, body == null ? 404 : 200, body == null ? "{}".getBytes(StandardCharsets.UTF_8) : body);
+        });
+        keycloak.start();
+
+        KeycloakClientConfig config = new KeycloakClientConfig();
+        String serverUrl = "http://127.0.0.1:" + keycloak.getAddress().getPort();
+        ReflectionTestUtils.setField(config, "serverUrl", serverUrl);
+        ReflectionTestUtils.setField(config, "realm", "master");
+        ReflectionTestUtils.setField(config, "clientId", "admin-cli");
+        ReflectionTestUtils.setField(config, "adminUsername", "admin");
+        ReflectionTestUtils.setField(config, "adminPassword", "admin");
+        ReflectionTestUtils.setField(config, "connectionPoolSize", 10);
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(config, "tokenMinValiditySeconds", 30L);
+        admin = config.keycloakAdminClient(config.keycloakAdminToken());
+
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        realmRefresh = Executors.newSingleThreadExecutor();
+        RealmDirectory realms = new RealmDirectory(admin, serverUrl, realmRefresh, 300, 240, meters);
+        CredentialTypeCache credentialTypes = new CredentialTypeCache(300, 5, 10000, meters);
+        RefreshTokenService refreshTokens = new RefreshTokenService(null, null, false, 1440, 168, meters);
+        DeviceTrustService deviceTrust = new DeviceTrustService(false, 30, "", null, meters);
+        uncached = new UserService(admin, realms, new UserRepresentationCache(0, 10000, meters), credentialTypes,
+                refreshTokens, deviceTrust);
+        cached = new UserService(admin, realms, new UserRepresentationCache(300, 10000, meters), credentialTypes,
+                refreshTokens, deviceTrust);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        admin.close();
+        keycloak.stop(0);
+        keycloakThreads.shutdownNow();
+        realmRefresh.shutdownNow();
+    }
+
+    @Benchmark
+    public UserApiV1 getUser() {
+        return uncached.getUser(REALM_ID, userId);
+    }
+
+    @Benchmark
+    public UserApiV1 getUserCached() {
+        return cached.getUser(REALM_ID, userId);
+    }
+
+    @Benchmark
+    public UserRepresentation listThenFilter() {
+        return admin.realm("bench").users().list().stream()
+                .filter(u -> userId.equals(u.getId()))
+                .findFirst().orElseThrow();
+    }
+
+    private static void reply(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        ex.getResponseBody().write(body);
+        ex.close();
+    }
+}
@@ -0,0 +1,77 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRepresentationCacheTest {
+
+    private static UserRepresentation user(String id) {
+        UserRepresentation u = new UserRepresentation();
+        u.setId(id);
+        u.setUsername("user-" + id);
+        u.setAttributes(Map.of("phone_number", List.of("+100")));
+        return u;
+    }
+
+    @Test
+    void hitsReturnCopies() {
+        UserRepresentationCache cache = new UserRepresentationCache(30, 10, new SimpleMeterRegistry());
+        UserRepresentation loaded = cache.get("r", "1", () -> user("1"));
+        loaded.setUsername("changed-by-caller");
+
+        UserRepresentation hit = cache.get("r", "1", () -> { throw new AssertionError("should hit"); });
+        assertThat(hit.getUsername()).isEqualTo("user-1");
+        assertThat(hit.getAttributes()).containsEntry("phone_number", List.of("+100"));
+        hit.setUsername("changed-again");
+        assertThat(cache.get("r", "1", () -> null).getUsername()).isEqualTo("user-1");
+    }
+
+    @Test
+    void fullCacheEvictsOldestFirst() {
+        UserRepresentationCache cache = new UserRepresentationCache(30, 3, new SimpleMeterRegistry());
+        for (int i = 0; i < 100; i++) {
+            String id = String.valueOf(i);
+            cache.get("r", id, () -> user(id));
+        }
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 97; i < 100; i++) {
+            String id = String.valueOf(i);
+            cache.get("r", id, () -> { loads.incrementAndGet(); return user(id); });
+        }
+        assertThat(loads).hasValue(0);
+        cache.get("r", "0", () -> { loads.incrementAndGet(); return user("0"); });
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void invalidateForcesReload() {
+        UserRepresentationCache cache = new UserRepresentationCache(30, 10, new SimpleMeterRegistry());
+        cache.get("r", "1", () -> user("1"));
+        cache.invalidate("r", "1");
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("r", "1", () -> { loads.incrementAndGet(); return user("1"); });
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void invalidateUserDropsTheUserInEveryRealm() {
+        UserRepresentationCache cache = new UserRepresentationCache(30, 10, new SimpleMeterRegistry());
+        cache.get("a", "1", () -> user("1"));
+        cache.get("b", "1", () -> user("1"));
+        cache.get("a", "2", () -> user("2"));
+        cache.invalidateUser("1");
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", "1", () -> { loads.incrementAndGet(); return user("1"); });
+        cache.get("b", "1", () -> { loads.incrementAndGet(); return user("1"); });
+        cache.get("a", "2", () -> { loads.incrementAndGet(); return user("2"); });
+        assertThat(loads).hasValue(2);
+    }
+}
@@ -0,0 +1,49 @@
+package org.mfa.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserSnapshotServiceTest {
+
+    @Test
+    void countsOneCacheLookupPerLoad() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        CredentialTypeCache credentialTypes = new CredentialTypeCache(300, 5, 100, meters);
+        Keycloak keycloak = mock(Keycloak.class, RETURNS_DEEP_STUBS);
+        UserResource user = keycloak.realms().realm("r").users().get("u1");
+        CredentialRepresentation otp = new CredentialRepresentation();
+        otp.setType("otp");
+        when(user.toRepresentation()).thenReturn(new UserRepresentation());
+        when(user.credentials()).thenReturn(List.of(otp));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            UserSnapshotService snapshots = new UserSnapshotService(keycloak, executor, credentialTypes);
+            int[] calls = new int[1];
+            assertThat(snapshots.load("r", "u1", calls).hasTotp()).isTrue();
+            assertThat(snapshots.load("r", "u1", calls).hasTotp()).isTrue();
+            assertThat(calls[0]).isEqualTo(3);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(user, times(1)).credentials();
+        assertThat(meters.get("mfa.credential-cache.requests").tag("result", "miss").counter().count()).isEqualTo(1);
+        assertThat(meters.get("mfa.credential-cache.requests").tag("result", "hit").counter().count()).isEqualTo(1);
+    }
+}
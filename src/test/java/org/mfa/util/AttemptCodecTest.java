@@ -0,0 +1,38 @@
+package org.mfa.util;
+
+import org.junit.jupiter.api.Test;
+import org.mfa.dto.Attempt;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AttemptCodecTest {
+
+    @Test
+    void roundTrips() {
+        Attempt a = Attempt.builder()
+                .realm("realm")
+                .username("alice")
+                .userId("u-1")
+                .sealedPassword(new byte[]{1, 2, 3})
+                .createdAt(Instant.ofEpochMilli(1_700_000_000_123L))
+                .failedChecks(2)
+                .build();
+
+        Attempt b = AttemptCodec.decode(AttemptCodec.encode(a));
+
+        assertThat(b.getRealm()).isEqualTo("realm");
+        assertThat(b.getUsername()).isEqualTo("alice");
+        assertThat(b.getUserId()).isEqualTo("u-1");
+        assertThat(b.getSealedPassword()).containsExactly(1, 2, 3);
+        assertThat(b.getCreatedAt()).isEqualTo(a.getCreatedAt());
+        assertThat(b.getFailedChecks()).isEqualTo(2);
+    }
+
+    @Test
+    void rejectsUnknownVersions() {
+        assertThatThrownBy(() -> AttemptCodec.decode(new byte[]{1, 0})).isInstanceOf(IllegalStateException.class);
+    }
+}
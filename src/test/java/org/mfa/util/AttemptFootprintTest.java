@@ -0,0 +1,52 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mfa.dto.Attempt;
+import org.openjdk.jol.info.GraphLayout;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Retained heap per pending attempt in {@link InMemoryPendingMfaStore}, measured with JOL, and the
+ * size of the {@link AttemptCodec} value the Redis store writes. Guards against the entry growing back.
+ */
+class AttemptFootprintTest {
+
+    private static final int ATTEMPTS = 2_000;
+    /** Entry, UUID key, map node, bucket queue node, unique username/userId strings and the sealed password. */
+    private static final long BYTES_BUDGET = 512;
+
+    @Test
+    void inMemoryEntryStaysCompact() throws Exception {
+        InMemoryPendingMfaStore store = new InMemoryPendingMfaStore(600, 10, ATTEMPTS, "reject",
+                new LockoutPolicy(5, 5, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+        Object attempts = ReflectionTestUtils.getField(store, "attempts");
+        Object buckets = ReflectionTestUtils.getField(store, "buckets");
+        long empty = GraphLayout.parseInstance(attempts, buckets).totalSize();
+
+        for (int i = 0; i < ATTEMPTS; i++) {
+            store.create("realm", "user" + i + "@example.com", String.format("3f2b8c1e-0000-4000-8000-%012d", i), "password-" + i);
+        }
+        long perAttempt = (GraphLayout.parseInstance(attempts, buckets).totalSize() - empty) / ATTEMPTS;
+
+        assertThat(perAttempt).as("bytes retained per attempt: %d", perAttempt).isLessThan(BYTES_BUDGET);
+    }
+
+    @Test
+    void redisValueStaysCompact() throws Exception {
+        AttemptSecrets secrets = new AttemptSecrets("");
+        byte[] value = AttemptCodec.encode(Attempt.builder()
+                .realm("realm")
+                .username("user1@example.com")
+                .userId("3f2b8c1e-0000-4000-8000-000000000001")
+                .sealedPassword(secrets.seal("password-1"))
+                .createdAt(Instant.now())
+                .build());
+
+        assertThat(value.length).as("value bytes per attempt: %d", value.length).isLessThan(128);
+    }
+}
@@ -0,0 +1,43 @@
+package org.mfa.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Fires guesses at one attempt from many threads at once, spread over the given store instances. */
+final class ConcurrentGuesses {
+
+    private ConcurrentGuesses() {}
+
+    /** @return how many of {@code threads} simultaneous {@link PendingMfaStore#reserveGuess} calls got a guess */
+    static int granted(String id, String userId, int threads, PendingMfaStore... stores) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger granted = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                PendingMfaStore store = stores[t % stores.length];
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        if (store.reserveGuess(id, userId)) granted.incrementAndGet();
+                    } catch (PendingMfaStore.LockedOutException expected) {
+                        // refused once the user is locked
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        return granted.get();
+    }
+}
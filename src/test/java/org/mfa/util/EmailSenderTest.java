@@ -0,0 +1,147 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmailSenderTest {
+
+    /** Records every SMTP session (one batch per call) and lets the test decide how it ends. */
+    private static class FakeMailSender extends JavaMailSenderImpl {
+        final BlockingQueue<List<String>> sessions = new LinkedBlockingQueue<>();
+        volatile Consumer<SimpleMailMessage[]> behaviour = batch -> {};
+
+        @Override
+        public void send(SimpleMailMessage... messages) {
+            Consumer<SimpleMailMessage[]> outcome = behaviour; // read before the test can see this session
+            sessions.add(Arrays.stream(messages).map(m -> m.getTo()[0]).toList());
+            outcome.accept(messages);
+        }
+
+        List<String> nextSession() throws InterruptedException {
+            List<String> session = sessions.poll(5, TimeUnit.SECONDS);
+            assertThat(session).as("expected another SMTP session").isNotNull();
+            return session;
+        }
+    }
+
+    private final FakeMailSender mail = new FakeMailSender();
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private EmailSender sender;
+
+    /** One worker, so batches are deterministic. */
+    private EmailSender sender(int capacity, int maxAttempts) {
+        return sender = new EmailSender(mail, capacity, 1, 20, maxAttempts, 10, meters);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (sender != null) sender.shutdown();
+    }
+
+    private double count(String name) {
+        return meters.get(name).counter().count();
+    }
+
+    @Test
+    void failedSendIsRetriedWithBackoff() throws Exception {
+        mail.behaviour = batch -> { throw new MailSendException("smtp down"); };
+        sender(10, 3);
+
+        assertThat(sender.sendOtp("alice@example.com", "123456")).isTrue();
+        long first = System.nanoTime();
+        assertThat(mail.nextSession()).containsExactly("alice@example.com");
+        mail.behaviour = batch -> {};
+        assertThat(mail.nextSession()).containsExactly("alice@example.com");
+        assertThat(System.nanoTime() - first).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+
+        sender.shutdown();
+        assertThat(count("mail.retried")).isEqualTo(1);
+        assertThat(count("mail.sent")).isEqualTo(1);
+        assertThat(count("mail.dropped")).isZero();
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        mail.behaviour = batch -> { throw new MailSendException("smtp down"); };
+        sender(10, 2);
+
+        sender.sendOtp("alice@example.com", "123456");
+        mail.nextSession();
+        mail.nextSession();
+        assertThat(mail.sessions.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        assertThat(count("mail.retried")).isEqualTo(1);
+        assertThat(count("mail.dropped")).isEqualTo(1);
+        assertThat(count("mail.sent")).isZero();
+    }
+
+    @Test
+    void onlyTheFailedMessagesOfABatchAreRetried() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mail.behaviour = batch -> awaitQuietly(release);
+        sender(10, 3);
+
+        sender.sendOtp("first@example.com", "1");
+        assertThat(mail.nextSession()).containsExactly("first@example.com");
+        // The worker is stuck in the first session; these two form the next batch
+        sender.sendOtp("bob@example.com", "2");
+        sender.sendOtp("carol@example.com", "3");
+        mail.behaviour = batch -> {
+            if (batch.length == 2) {
+                throw new MailSendException(Map.of(batch[0], new RuntimeException("rejected")));
+            }
+        };
+        release.countDown();
+
+        assertThat(mail.nextSession()).containsExactly("bob@example.com", "carol@example.com");
+        assertThat(mail.nextSession()).containsExactly("bob@example.com");
+        sender.shutdown();
+        assertThat(count("mail.sent")).isEqualTo(3);
+        assertThat(count("mail.retried")).isEqualTo(1);
+    }
+
+    @Test
+    void fullQueueDropsNewMail() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mail.behaviour = batch -> awaitQuietly(release);
+        sender(1, 3);
+
+        assertThat(sender.sendOtp("first@example.com", "1")).isTrue();
+        mail.nextSession();
+        assertThat(sender.sendOtp("bob@example.com", "2")).isTrue();
+        assertThat(sender.sendOtp("carol@example.com", "3")).isFalse();
+        assertThat(count("mail.dropped")).isEqualTo(1);
+
+        release.countDown();
+        assertThat(mail.nextSession()).containsExactly("bob@example.com");
+    }
+
+    @Test
+    void masksAddressesForLogs() {
+        assertThat(EmailSender.mask("alice@example.com")).isEqualTo("a***@example.com");
+        assertThat(EmailSender.mask("a@example.com", "not-an-address")).isEqualTo("a***@example.com,***");
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InMemoryPendingMfaStoreTest {
+
+    private static InMemoryPendingMfaStore store(int maxSize, String overflow) throws Exception {
+        return new InMemoryPendingMfaStore(600, 10, maxSize, overflow,
+                new LockoutPolicy(5, 5, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void rejectPolicyRefusesOnceFull() throws Exception {
+        InMemoryPendingMfaStore store = store(2, "reject");
+        store.create("r", "a", "u1", "p");
+        store.create("r", "b", "u2", "p");
+
+        assertThatThrownBy(() -> store.create("r", "c", "u3", "p"))
+                .isInstanceOf(PendingMfaStore.CapacityExceededException.class);
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void evictOldestMakesRoom() throws Exception {
+        InMemoryPendingMfaStore store = store(2, "evict-oldest");
+        String first = store.create("r", "a", "u1", "p");
+        store.create("r", "b", "u2", "p");
+        String third = store.create("r", "c", "u3", "p");
+
+        assertThat(store.get(first)).isNull();
+        assertThat(store.get(third).getUsername()).isEqualTo("c");
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrentCreatesNeverExceedCapacity() throws Exception {
+        int maxSize = 100;
+        InMemoryPendingMfaStore store = store(maxSize, "reject");
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < 16; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 50; i++) {
+                        try {
+                            store.create("r", "user", "u", "p");
+                            created.incrementAndGet();
+                        } catch (PendingMfaStore.CapacityExceededException ignored) {
+                            // expected once full
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(created.get()).isEqualTo(maxSize);
+        assertThat(store.size()).isEqualTo(maxSize);
+    }
+
+    @Test
+    void removeReleasesCapacity() throws Exception {
+        InMemoryPendingMfaStore store = store(1, "reject");
+        String id = store.create("r", "a", "u1", "p");
+        store.remove(id);
+        store.remove(id);
+
+        assertThat(store.size()).isZero();
+        assertThat(store.create("r", "b", "u2", "p")).isNotNull();
+    }
+
+    @Test
+    void concurrentGuessesNeverExceedTheAttemptBudget() throws Exception {
+        InMemoryPendingMfaStore store = store(10, "reject");
+        String id = store.create("r", "a", "u1", "p");
+
+        assertThat(ConcurrentGuesses.granted(id, "u1", 64, store)).isEqualTo(5);
+        assertThat(store.reserveGuess(id, "u1")).isFalse();
+        assertThat(store.get(id)).isNull();
+    }
+
+    @Test
+    void concurrentGuessesStopAtTheUserLock() throws Exception {
+        InMemoryPendingMfaStore store = new InMemoryPendingMfaStore(600, 10, 10, "reject",
+                new LockoutPolicy(5, 2, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+        String first = store.create("r", "a", "u1", "p");
+        String second = store.create("r", "a", "u1", "p");
+
+        // Two free guesses plus the one that takes the lock, however many attempts the user opens
+        assertThat(ConcurrentGuesses.granted(first, "u1", 32, store)
+                + ConcurrentGuesses.granted(second, "u1", 32, store)).isEqualTo(3);
+        store.clearFailures("u1");
+        assertThat(store.reserveGuess(second, "u1")).isTrue();
+    }
+
+    @Test
+    void refundedGuessIsGivenBack() throws Exception {
+        InMemoryPendingMfaStore store = store(10, "reject");
+        String id = store.create("r", "a", "u1", "p");
+        store.reserveGuess(id, "u1");
+        store.refundGuess(id, "u1");
+
+        assertThat(store.get(id).getFailedChecks()).isZero();
+    }
+}
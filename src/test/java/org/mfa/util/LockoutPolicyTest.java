@@ -0,0 +1,39 @@
+package org.mfa.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LockoutPolicyTest {
+
+    private final LockoutPolicy policy = new LockoutPolicy(5, 3, 60, 30, 600);
+
+    @Test
+    void attemptIsExhaustedAtMaxFailures() {
+        assertThat(policy.attemptExhausted(4)).isFalse();
+        assertThat(policy.attemptExhausted(5)).isTrue();
+        assertThat(policy.attemptExhausted(6)).isTrue();
+    }
+
+    @Test
+    void lockoutDoublesAfterTheFreeFailuresUpToTheCap() {
+        assertThat(policy.lockoutMillis(1)).isZero();
+        assertThat(policy.lockoutMillis(3)).isZero();
+        assertThat(policy.lockoutMillis(4)).isEqualTo(30_000);
+        assertThat(policy.lockoutMillis(5)).isEqualTo(60_000);
+        assertThat(policy.lockoutMillis(6)).isEqualTo(120_000);
+        assertThat(policy.lockoutMillis(8)).isEqualTo(480_000);
+        assertThat(policy.lockoutMillis(9)).isEqualTo(600_000);
+    }
+
+    @Test
+    void hugeFailureCountsStayCappedWithoutOverflow() {
+        assertThat(policy.lockoutMillis(1_000)).isEqualTo(600_000);
+        assertThat(policy.lockoutMillis(Long.MAX_VALUE)).isEqualTo(600_000);
+    }
+
+    @Test
+    void windowIsInMillis() {
+        assertThat(policy.windowMillis()).isEqualTo(3_600_000);
+    }
+}
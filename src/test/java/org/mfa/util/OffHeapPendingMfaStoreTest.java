@@ -0,0 +1,203 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mfa.dto.Attempt;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapPendingMfaStoreTest {
+
+    private static OffHeapPendingMfaStore store(int slots) throws Exception {
+        return new OffHeapPendingMfaStore(600, slots, 256, 1024,
+                new LockoutPolicy(3, 5, 60, 30, 3600), new AttemptSecrets(""), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void emailOtpIsSingleUse() throws Exception {
+        OffHeapPendingMfaStore store = store(4);
+        String id = store.create("realm", "alice", "u-1", "pw");
+        store.setEmailOtp(id, "123456", Instant.now().plusSeconds(60));
+
+        assertThat(store.consumeValidEmailOtp(id, "000000")).isFalse();
+        assertThat(store.consumeValidEmailOtp(id, "123456")).isTrue();
+        assertThat(store.consumeValidEmailOtp(id, "123456")).isFalse();
+        assertThat(store.password(store.get(id))).isEqualTo("pw");
+    }
+
+    @Test
+    void freedSlotIsReusedWithoutResurrectingTheOldId() throws Exception {
+        OffHeapPendingMfaStore store = store(1);
+        String first = store.create("realm", "alice", "u-1", "pw");
+        store.setEmailOtp(first, "123456", Instant.now().plusSeconds(60));
+        store.remove(first);
+        assertThat(store.get(first)).isNull();
+        assertThat(store.size()).isZero();
+
+        String second = store.create("realm", "bob", "u-2", "pw");
+        assertThat(second).isNotEqualTo(first);
+        assertThat(store.get(first)).isNull();
+        assertThat(store.consumeValidEmailOtp(first, "123456")).isFalse();
+        assertThat(store.get(second).getUsername()).isEqualTo("bob");
+
+        store.remove(first);
+        assertThat(store.get(second)).isNotNull();
+    }
+
+    @Test
+    void exhaustedAttemptIsFreed() throws Exception {
+        OffHeapPendingMfaStore store = store(2);
+        String id = store.create("realm", "alice", "u-1", "pw");
+        assertThat(store.reserveGuess(id, "u-1")).isTrue();
+        assertThat(store.reserveGuess(id, "u-1")).isTrue();
+        store.refundGuess(id, "u-1");
+        assertThat(store.get(id).getFailedChecks()).isEqualTo(1);
+
+        assertThat(store.reserveGuess(id, "u-1")).isTrue();
+        assertThat(store.reserveGuess(id, "u-1")).isTrue();
+        assertThat(store.reserveGuess(id, "u-1")).isFalse();
+        assertThat(store.get(id)).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void concurrentGuessesNeverExceedTheAttemptBudget() throws Exception {
+        OffHeapPendingMfaStore store = store(2);
+        String id = store.create("realm", "alice", "u-1", "pw");
+
+        assertThat(ConcurrentGuesses.granted(id, "u-1", 64, store)).isEqualTo(3);
+    }
+
+    @Test
+    void fullStoreRejectsAndOversizedAttemptsAreRefused() throws Exception {
+        OffHeapPendingMfaStore store = store(1);
+        store.create("realm", "alice", "u-1", "pw");
+        assertThatThrownBy(() -> store.create("realm", "bob", "u-2", "pw"))
+                .isInstanceOf(PendingMfaStore.CapacityExceededException.class);
+
+        OffHeapPendingMfaStore empty = store(1);
+        assertThatThrownBy(() -> empty.create("realm", "alice", "u-1", "x".repeat(500)))
+                .isInstanceOf(PendingMfaStore.AttemptTooLargeException.class);
+        assertThat(empty.size()).isZero();
+    }
+
+    @Test
+    void foreignAndMalformedIdsAreIgnored() throws Exception {
+        OffHeapPendingMfaStore store = store(2);
+        store.create("realm", "alice", "u-1", "pw");
+
+        assertThat(store.get(null)).isNull();
+        assertThat(store.get("not-an-id")).isNull();
+        assertThat(store.get(new UUID(1, 0).toString())).isNull();
+        assertThat(store.get(new UUID(1, 0xFFFF_FFFFL).toString())).isNull();
+    }
+
+    /**
+     * Readers racing a slot that is freed and reused must see the whole attempt they asked for or
+     * nothing. The writer only moves on once a reader has seen the current generation, so every
+     * generation is raced, however the threads are scheduled.
+     */
+    @Test
+    void readersNeverSeeATornOrForeignAttempt() throws Exception {
+        record Generation(int n, String id) {}
+        int generations = 2_000;
+        OffHeapPendingMfaStore store = store(1);
+        AtomicReference<Generation> current = new AtomicReference<>(
+                new Generation(0, store.create("realm", "user-0-", "id-0", "pw")));
+        AtomicInteger observed = new AtomicInteger(-1);
+        AtomicLong torn = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> writer = pool.submit(() -> {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                for (int n = 1; n <= generations; n++) {
+                    while (observed.get() < n - 1) {
+                        if (System.nanoTime() > deadline) throw new AssertionError("readers stalled at generation " + (n - 1));
+                        Thread.onSpinWait();
+                    }
+                    store.remove(current.get().id());
+                    // Usernames of varying length, so a torn read would mix payload lengths
+                    current.set(new Generation(n, store.create("realm", "user-" + n + "-" + "x".repeat(n % 40), "id-" + n, "pw")));
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit(() -> {
+                    while (!stop.get()) {
+                        Generation g = current.get();
+                        Attempt a = store.get(g.id());
+                        if (a == null) continue;
+                        String expected = "user-" + g.n() + "-" + "x".repeat(g.n() % 40);
+                        if (!a.getUserId().equals("id-" + g.n()) || !a.getUsername().equals(expected)) {
+                            torn.incrementAndGet();
+                        }
+                        observed.accumulateAndGet(g.n(), Math::max);
+                    }
+                }));
+            }
+            writer.get(60, TimeUnit.SECONDS);
+            stop.set(true);
+            for (Future<?> f : readers) f.get(10, TimeUnit.SECONDS);
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+        assertThat(torn.get()).as("torn or foreign reads").isZero();
+    }
+
+    /** Concurrent create/remove must neither lose free slots nor hand one slot out twice. */
+    @Test
+    void freeStackSurvivesConcurrentChurn() throws Exception {
+        int slots = 64;
+        OffHeapPendingMfaStore store = store(slots);
+        int threads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String user = "user-" + t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 20_000; i++) {
+                        String id = store.create("realm", user, user, "pw");
+                        assertThat(store.get(id).getUsername()).isEqualTo(user);
+                        store.remove(id);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get(60, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(store.size()).isZero();
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < slots; i++) ids.add(store.create("realm", "u" + i, "u" + i, "pw"));
+        assertThatThrownBy(() -> store.create("realm", "extra", "extra", "pw"))
+                .isInstanceOf(PendingMfaStore.CapacityExceededException.class);
+        for (String id : ids) assertThat(store.get(id)).isNotNull();
+        assertThat(store.size()).isEqualTo(slots);
+    }
+}
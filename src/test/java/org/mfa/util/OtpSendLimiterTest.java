@@ -0,0 +1,93 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mfa.util.OtpSendLimiter.RateLimitedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OtpSendLimiterTest {
+
+    /** cooldown, attempt max-sends, user burst/hour/day, IP burst/hour/day, max keys. */
+    private static OtpSendLimiter limiter(long cooldown, long attemptMax, long userBurst, long ipBurst, int maxKeys) {
+        return new OtpSendLimiter(cooldown, attemptMax, 600, userBurst, userBurst, 0, ipBurst, ipBurst, 0,
+                maxKeys, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void cooldownAppliesPerAttemptAndChannel() {
+        OtpSendLimiter limiter = limiter(30, 0, 0, 0, 100);
+        limiter.acquire("sms", "a1", "u1", "ip1");
+
+        assertThatThrownBy(() -> limiter.acquire("sms", "a1", "u1", "ip1"))
+                .isInstanceOfSatisfying(RateLimitedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isBetween(29L, 30L));
+        assertThatCode(() -> limiter.acquire("email", "a1", "u1", "ip1")).doesNotThrowAnyException();
+        assertThatCode(() -> limiter.acquire("sms", "a2", "u1", "ip1")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void aSendRejectedByOneDimensionDoesNotChargeTheOthers() {
+        OtpSendLimiter limiter = limiter(0, 0, 2, 1, 100);
+        limiter.acquire("sms", "a1", "u1", "ip1");
+
+        // The IP is exhausted; the user's second token must survive the rejections
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> limiter.acquire("sms", "a1", "u1", "ip1")).isInstanceOf(RateLimitedException.class);
+        }
+        assertThatCode(() -> limiter.acquire("sms", "a1", "u1", "ip2")).doesNotThrowAnyException();
+        assertThatThrownBy(() -> limiter.acquire("sms", "a1", "u1", "ip3")).isInstanceOf(RateLimitedException.class);
+    }
+
+    @Test
+    void attemptIsCappedAtMaxSendsForItsWholeLifetime() {
+        OtpSendLimiter limiter = limiter(0, 3, 0, 0, 100);
+        for (int i = 0; i < 3; i++) limiter.acquire("sms", "a1", "u" + i, "ip" + i);
+
+        // A burst-sized GCRA bucket would refill after 200 s; the cap holds until the attempt expires
+        assertThatThrownBy(() -> limiter.acquire("sms", "a1", "u9", "ip9"))
+                .isInstanceOfSatisfying(RateLimitedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isBetween(599L, 600L));
+        assertThatCode(() -> limiter.acquire("sms", "a2", "u9", "ip9")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void userIsCappedAtPerDayUntilTheWindowCloses() {
+        // No cooldown, attempt cap or hourly limit: only the user's daily window applies
+        OtpSendLimiter limiter = new OtpSendLimiter(0, 0, 600, 0, 0, 4, 0, 0, 0, 100, new SimpleMeterRegistry());
+        for (int i = 0; i < 4; i++) limiter.acquire("email", "a" + i, "u1", "ip" + i);
+
+        assertThatThrownBy(() -> limiter.acquire("email", "a9", "u1", "ip9"))
+                .isInstanceOfSatisfying(RateLimitedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isBetween(86_399L, 86_400L));
+        assertThatCode(() -> limiter.acquire("email", "a9", "u2", "ip9")).doesNotThrowAnyException();
+        assertThatCode(() -> limiter.acquire("sms", "a9", "u1", "ip9")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void ipDailyCapAppliesWithinTheHourlyBurst() {
+        // 5 at once and 5/h, but only 3 per day
+        OtpSendLimiter limiter = new OtpSendLimiter(0, 0, 600, 0, 0, 0, 5, 5, 3, 100, new SimpleMeterRegistry());
+        for (int i = 0; i < 3; i++) limiter.acquire("sms", "a" + i, "u" + i, "ip");
+
+        assertThatThrownBy(() -> limiter.acquire("sms", "a9", "u9", "ip"))
+                .isInstanceOfSatisfying(RateLimitedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isBetween(86_399L, 86_400L));
+    }
+
+    @Test
+    void failsClosedForNewKeysWhenFullUntilRefilledKeysAreSwept() throws Exception {
+        OtpSendLimiter limiter = limiter(1, 0, 0, 0, 2);
+        limiter.acquire("sms", "a1", "u", "ip");
+        limiter.acquire("sms", "a2", "u", "ip");
+
+        assertThatThrownBy(() -> limiter.acquire("sms", "a3", "u", "ip")).isInstanceOf(RateLimitedException.class);
+        assertThat(limiter.size()).isEqualTo(2);
+
+        Thread.sleep(1100);
+        assertThatCode(() -> limiter.acquire("sms", "a3", "u", "ip")).doesNotThrowAnyException();
+        assertThat(limiter.size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,57 @@
+package org.mfa.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GC cost of holding a large set of pending attempts: {@link InMemoryPendingMfaStore} (one small heap
+ * graph per attempt) against {@link OffHeapPendingMfaStore} (slots in a direct buffer). Each op
+ * replaces the oldest of {@code live} attempts, so the live set stays constant while logins churn.
+ * Both variants keep the same ring of id strings on the heap. Compare {@code gc.count} and
+ * {@code gc.time} from the GC profiler:
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.args="PendingStoreGc -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g", "-XX:+UseG1GC", "-XX:MaxDirectMemorySize=1g"})
+public class PendingStoreGcBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String store;
+
+    @Param({"500000"})
+    public int live;
+
+    private PendingMfaStore attempts;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LockoutPolicy lockout = new LockoutPolicy(5, 5, 60, 30, 3600);
+        AttemptSecrets secrets = new AttemptSecrets("");
+        attempts = "offheap".equals(store)
+                ? new OffHeapPendingMfaStore(3600, live + 1, 256, 65536, lockout, secrets, new SimpleMeterRegistry())
+                : new InMemoryPendingMfaStore(3600, 10, live + 1, "reject", lockout, secrets, new SimpleMeterRegistry());
+        ids = new String[live];
+        for (int i = 0; i < live; i++) ids[i] = create(i);
+        System.gc();
+    }
+
+    @Benchmark
+    public String churn() {
+        int slot = next;
+        next = slot + 1 == live ? 0 : slot + 1;
+        attempts.remove(ids[slot]);
+        return ids[slot] = create(slot);
+    }
+
+    private String create(int i) {
+        return attempts.create("acme", "user" + i + "@example.com", "0b6c5e0e-6b1f-4c55-9f0e-" + (100000000000L + i), "password-" + i);
+    }
+}
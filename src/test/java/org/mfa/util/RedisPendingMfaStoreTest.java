@@ -0,0 +1,123 @@
+package org.mfa.util;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Runs the shared store against an embedded redis-server; two store instances stand in for two replicas. */
+class RedisPendingMfaStoreTest {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private static RedisServer server;
+    private static String uri;
+
+    private RedisPendingMfaStore nodeA;
+    private RedisPendingMfaStore nodeB;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        server = new RedisServer(port);
+        server.start();
+        uri = "redis://localhost:" + port;
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        if (server != null) server.stop();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        LockoutPolicy policy = new LockoutPolicy(3, 2, 60, 30, 3600);
+        nodeA = new RedisPendingMfaStore(uri, 600, policy, new AttemptSecrets(SECRET));
+        nodeB = new RedisPendingMfaStore(uri, 600, policy, new AttemptSecrets(SECRET));
+    }
+
+    @AfterEach
+    void close() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    @Test
+    void attemptCreatedOnOneNodeIsReadableOnAnother() {
+        String id = nodeA.create("realm", "alice", "u-1", "s3cret");
+
+        var a = nodeB.get(id);
+        assertThat(a.getUsername()).isEqualTo("alice");
+        assertThat(nodeB.password(a)).isEqualTo("s3cret");
+    }
+
+    @Test
+    void emailOtpIsConsumedOnceAcrossNodes() {
+        String id = nodeA.create("realm", "alice", "u-2", "pw");
+        nodeA.setEmailOtp(id, "123456", Instant.now().plusSeconds(60));
+
+        assertThat(nodeB.consumeValidEmailOtp(id, "000000")).isFalse();
+        assertThat(nodeB.consumeValidEmailOtp(id, "123456")).isTrue();
+        assertThat(nodeA.consumeValidEmailOtp(id, "123456")).isFalse();
+    }
+
+    @Test
+    void exhaustedAttemptIsRemovedAndUserLocked() {
+        String id = nodeA.create("realm", "bob", "u-3", "pw");
+        for (int i = 0; i < 3; i++) assertThat(nodeA.reserveGuess(id, "u-3")).isTrue();
+        assertThatThrownBy(() -> nodeB.reserveGuess(id, "u-3"))
+                .isInstanceOf(PendingMfaStore.LockedOutException.class);
+
+        nodeA.clearFailures("u-3");
+        assertThat(nodeB.reserveGuess(id, "u-3")).isFalse();
+        assertThat(nodeB.get(id)).isNull();
+    }
+
+    @Test
+    void refundedGuessIsGivenBackOnEveryNode() {
+        String id = nodeA.create("realm", "carol", "u-4", "pw");
+        assertThat(nodeA.reserveGuess(id, "u-4")).isTrue();
+        nodeB.refundGuess(id, "u-4");
+
+        // Still all three guesses of the attempt; the last one takes the user's lock
+        assertThat(nodeA.reserveGuess(id, "u-4")).isTrue();
+        assertThat(nodeB.reserveGuess(id, "u-4")).isTrue();
+        assertThat(nodeA.reserveGuess(id, "u-4")).isTrue();
+        assertThatThrownBy(() -> nodeA.reserveGuess(id, "u-4"))
+                .isInstanceOf(PendingMfaStore.LockedOutException.class);
+    }
+
+    @Test
+    void concurrentGuessesAcrossNodesNeverExceedTheBudget() throws Exception {
+        String id = nodeA.create("realm", "dave", "u-5", "pw");
+        // Three guesses per attempt, but the user is locked by the third (two are free)
+        assertThat(ConcurrentGuesses.granted(id, "u-5", 32, nodeA, nodeB)).isEqualTo(3);
+    }
+
+    @Test
+    void revokeOnceHasOneWinnerAcrossNodes() {
+        assertThat(nodeA.revokeOnce("refresh:t1", 60_000)).isTrue();
+        assertThat(nodeB.revokeOnce("refresh:t1", 60_000)).isFalse();
+        assertThat(nodeB.revokedAt("refresh:t1")).isPositive();
+        assertThat(nodeB.revokedAt("refresh:t2")).isZero();
+    }
+
+    @Test
+    void refusesToStartWithoutASharedSecret() throws Exception {
+        AttemptSecrets ephemeral = new AttemptSecrets("");
+        assertThatThrownBy(() -> new RedisPendingMfaStore(uri, 600, new LockoutPolicy(3, 2, 60, 30, 3600), ephemeral))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
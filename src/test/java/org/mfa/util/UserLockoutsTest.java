@@ -0,0 +1,78 @@
+package org.mfa.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserLockoutsTest {
+
+    private static UserLockouts lockouts(long windowMinutes) {
+        return new UserLockouts(new LockoutPolicy(5, 2, windowMinutes, 30, 3600));
+    }
+
+    @Test
+    void locksTheUserOncePastTheFreeFailures() {
+        UserLockouts lockouts = lockouts(60);
+        lockouts.reserve("u1");
+        lockouts.reserve("u1");
+        // The third guess is allowed, but takes the lock it would earn if wrong
+        assertThatCode(() -> lockouts.reserve("u1")).doesNotThrowAnyException();
+
+        assertThatThrownBy(() -> lockouts.reserve("u1"))
+                .isInstanceOfSatisfying(PendingMfaStore.LockedOutException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isBetween(29L, 30L));
+        assertThatCode(() -> lockouts.reserve("u2")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void clearUnlocksAndResetsTheCount() {
+        UserLockouts lockouts = lockouts(60);
+        for (int i = 0; i < 3; i++) lockouts.reserve("u1");
+        lockouts.clear("u1");
+
+        lockouts.reserve("u1");
+        lockouts.reserve("u1");
+        lockouts.reserve("u1");
+        assertThatThrownBy(() -> lockouts.reserve("u1")).isInstanceOf(PendingMfaStore.LockedOutException.class);
+    }
+
+    @Test
+    void refundedGuessesDoNotCount() {
+        UserLockouts lockouts = lockouts(60);
+        for (int i = 0; i < 5; i++) {
+            lockouts.reserve("u1");
+            lockouts.refund("u1");
+        }
+        lockouts.reserve("u1");
+        assertThatCode(() -> lockouts.reserve("u1")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void failuresOutsideTheWindowStartAFreshCount() {
+        UserLockouts lockouts = lockouts(0);
+        for (int i = 0; i < 10; i++) lockouts.reserve("u1");
+        assertThatCode(() -> lockouts.reserve("u1")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void sweepKeepsActiveLockouts() {
+        UserLockouts lockouts = lockouts(60);
+        for (int i = 0; i < 3; i++) lockouts.reserve("u1");
+        lockouts.sweep(System.currentTimeMillis());
+        assertThatThrownBy(() -> lockouts.reserve("u1")).isInstanceOf(PendingMfaStore.LockedOutException.class);
+
+        lockouts.sweep(System.currentTimeMillis() + 3_600_001);
+        assertThatCode(() -> lockouts.reserve("u1")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void nullUsersAreIgnored() {
+        UserLockouts lockouts = lockouts(60);
+        lockouts.reserve(null);
+        lockouts.refund(null);
+        lockouts.clear(null);
+        assertThatCode(() -> lockouts.reserve(null)).doesNotThrowAnyException();
+    }
+}